@@ -3,7 +3,11 @@ package net.woadwizard;
 import me.shedaniel.autoconfig.AutoConfig;
 import me.shedaniel.autoconfig.serializer.GsonConfigSerializer;
 import net.fabricmc.api.ClientModInitializer;
+import net.fabricmc.fabric.api.client.event.lifecycle.v1.ClientLifecycleEvents;
+import net.fabricmc.fabric.api.client.event.lifecycle.v1.ClientTickEvents;
 import net.woadwizard.config.ModConfig;
+import net.woadwizard.killring.ClipboardBridge;
+import net.woadwizard.undo.UndoSessionStore;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -15,6 +19,13 @@ public class EmacsInputClient implements ClientModInitializer {
 	public void onInitializeClient() {
 		// Register configuration
 		AutoConfig.register(ModConfig.class, GsonConfigSerializer::new);
+		// Load saved undo history in the background
+		UndoSessionStore.load();
+		// Read saved kills in the background, ready for the first yank
+		KillRing.loadSavedKills();
+		// Sync the kill ring with the system clipboard between frames
+		ClientTickEvents.END_CLIENT_TICK.register(ClipboardBridge::onTick);
+		ClientLifecycleEvents.CLIENT_STOPPING.register(ClipboardBridge::flush);
 		LOGGER.info("Emacs Input mod initialized");
 	}
 }
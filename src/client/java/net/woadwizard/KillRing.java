@@ -1,13 +1,24 @@
 package net.woadwizard;
 
-import net.minecraft.client.Minecraft;
-import net.minecraft.client.gui.font.TextFieldHelper;
+import net.woadwizard.config.ConfigHelper;
+import net.woadwizard.killring.ClipboardBridge;
+import net.woadwizard.killring.KillEntry;
+import net.woadwizard.killring.KillRingLog;
+import net.woadwizard.killring.KillSource;
+import net.woadwizard.killring.SharedKillRing;
+import net.woadwizard.search.TrigramIndex;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.ArrayDeque;
-import java.util.Deque;
-import java.util.Iterator;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 
 /**
  * Emacs-style kill ring for storing killed (cut) text.
@@ -16,41 +27,148 @@ import java.util.Iterator;
  * Yank-pop (M-y) tracking uses cursor position instead of a boolean flag.
  * This is more robust because it doesn't require tracking state across
  * multiple event handlers that might accidentally reset it.
+ *
+ * Entries live in a fixed-size circular buffer (newest at index 0) so yank
+ * and yank-pop are O(1). A hash index from entry to slot finds duplicates,
+ * which are moved to the front instead of being added again. Consecutive
+ * kills from the same widget and cursor position are merged into one entry,
+ * as in Emacs.
+ *
+ * The ring is bounded by entry count and by the total bytes its entries hold
+ * (see ModConfig); long kills are stored compressed (see KillEntry) and only
+ * inflated when yanked, so they count for their compressed size. It is
+ * optionally persisted through KillRingLog, except for text pulled in from
+ * the system clipboard, which is never written to disk. Saved kills are read in the
+ * background when the game starts and added behind this session's kills at
+ * the first yank after they are ready; a yank never waits for them. The system clipboard is synced through
+ * ClipboardBridge, outside of key handling. Kills can also be shared with
+ * other game instances through SharedKillRing; theirs are picked up at the
+ * next yank.
+ *
+ * Each entry records where and when it was killed, for the kill ring browser
+ * (see KillRingBrowser). Once a query reaches TrigramIndex.GRAM_LENGTH
+ * characters, a trigram index over the entries narrows it to the kills that
+ * can contain it, so only those are checked; shorter queries scan the ring
+ * (or the previous results, when narrowing). Compressed entries are indexed and matched by their plain prefix only
+ * (KillEntry.searchText), so the index stays small and filtering never
+ * inflates them.
  */
 public class KillRing {
     private static final Logger LOGGER = LoggerFactory.getLogger(KillRing.class);
-    private static final int MAX_RING_SIZE = 60;
-    private static final Deque<String> ring = new ArrayDeque<>();
+
+    // Circular buffer: index 0 (newest) is at slots[head]
+    private static KillEntry[] slots = new KillEntry[0];
+    private static int head = 0;
+    private static int size = 0;
+    private static final Map<KillEntry, Integer> slotIndex = new HashMap<>();
+    private static final TrigramIndex<KillEntry> textIndex = new TrigramIndex<>();
+    private static long ringBytes = 0;
+    private static boolean replayed = false;
+    private static Future<List<KillEntry>> replaying = null;
     private static int yankIndex = 0;
 
+    // Where the last kill happened, for merging consecutive kills
+    private static WeakReference<Object> lastKillWidget = new WeakReference<>(null);
+    private static int lastKillCursor = -1;
+    // Bumped by every kill, so key handling can tell whether a command killed
+    private static int killCount = 0;
+
     // Track yank position for M-y support
     // expectedCursorAfterYank is where the cursor should be if the last action was yank/yank-pop
     private static int expectedCursorAfterYank = -1;
     private static int lastYankLength = 0;
 
     /**
-     * Add text to the kill ring.
+     * Add text to the kill ring as a new entry.
+     * Used for copies (M-w), which never merge with the previous kill.
      */
     public static void kill(String text) {
         if (text == null || text.isEmpty()) {
             return;
         }
-        // Add to front of ring (O(1) with ArrayDeque)
-        ring.addFirst(text);
-        // Trim ring if too large (O(1) removal from end)
-        while (ring.size() > MAX_RING_SIZE) {
-            ring.removeLast();
+        endKillSequence();
+        addKill(text, false, true, KillSource.current());
+    }
+
+    /**
+     * Add text copied in another application as a new entry.
+     * It is already on the clipboard, so nothing is written back.
+     */
+    public static void addExternal(String text) {
+        if (text == null || text.isEmpty()) {
+            return;
         }
-        // Also copy to system clipboard
-        try {
-            TextFieldHelper.setClipboardContents(Minecraft.getInstance(), text);
-        } catch (Exception e) {
-            LOGGER.warn("Failed to copy to system clipboard", e);
+        endKillSequence();
+        addKill(text, false, false, KillSource.CLIPBOARD);
+    }
+
+    /**
+     * Add killed text to the kill ring, merging it into the newest entry if
+     * the previous kill was in the same widget and ended where this one starts.
+     * @param cursorBefore cursor position before the text was deleted
+     * @param cursorAfter cursor position after the text was deleted
+     * @param direction positive appends to a merged entry (forward kills),
+     *                  negative prepends (backward kills), zero never merges
+     */
+    public static void kill(String text, Object widget, int cursorBefore, int cursorAfter, int direction) {
+        if (text == null || text.isEmpty()) {
+            return;
+        }
+        boolean merge = direction != 0
+            && size > 0
+            && widget != null
+            && widget == lastKillWidget.get()
+            && cursorBefore == lastKillCursor;
+        if (merge) {
+            String newest = slots[head].text();
+            text = direction > 0 ? newest + text : text + newest;
+            removeNewest();
+        }
+        lastKillWidget = new WeakReference<>(widget);
+        lastKillCursor = cursorAfter;
+        killCount++;
+        addKill(text, merge, true, KillSource.current());
+    }
+
+    /**
+     * End the current run of kills, so the next kill starts a new entry.
+     * Like Emacs, only kills with nothing in between are merged: this is
+     * called for every key that doesn't kill and every other change to the text.
+     */
+    public static void endKillSequence() {
+        lastKillWidget.clear();
+        lastKillCursor = -1;
+    }
+
+    /**
+     * Number of kills so far, for telling whether a command killed.
+     */
+    public static int getKillCount() {
+        return killCount;
+    }
+
+    private static void addKill(String text, boolean merged, boolean copyToClipboard, KillSource source) {
+        ensureCapacity();
+        KillEntry entry = KillEntry.of(text, source, System.currentTimeMillis());
+        add(entry);
+        trimToLimits();
+        // Text copied in other applications may be anything (such as a password), so it stays in memory
+        if (ConfigHelper.isKillRingPersistent() && source != KillSource.CLIPBOARD) {
+            // Written on a background thread; never blocks on disk I/O
+            KillRingLog.append(entry, merged, ConfigHelper.getKillRingSize(), ConfigHelper.getKillRingMaxBytes());
+        }
+        // Also copy to system clipboard (written at the end of the tick)
+        if (copyToClipboard) {
+            ClipboardBridge.queueWrite(text);
+            // Other instances see the clipboard themselves, so only our own kills are shared
+            if (ConfigHelper.isKillRingShared()) {
+                SharedKillRing.publish(entry);
+            }
         }
         // Reset yank tracking - new kills invalidate yank-pop
         expectedCursorAfterYank = -1;
         yankIndex = 0;
-        LOGGER.debug("Killed text, ring size: {}", ring.size());
+        LOGGER.debug("Killed text (merged={}), ring size: {}", merged, size);
     }
 
     /**
@@ -58,39 +176,283 @@ public class KillRing {
      * Call recordYank() after inserting the text to enable yank-pop.
      */
     public static String yank() {
-        if (ring.isEmpty()) {
-            // Fall back to system clipboard
-            try {
-                String clipboard = TextFieldHelper.getClipboardContents(Minecraft.getInstance());
-                LOGGER.debug("Yank from clipboard: {} chars", clipboard != null ? clipboard.length() : 0);
-                return clipboard;
-            } catch (Exception e) {
-                LOGGER.warn("Failed to read from system clipboard", e);
-                return "";
-            }
+        replaySavedKills();
+        pullSharedKills();
+        if (size == 0) {
+            // Fall back to the last known clipboard contents
+            String clipboard = ClipboardBridge.getCachedClipboard();
+            LOGGER.debug("Yank from clipboard: {} chars", clipboard != null ? clipboard.length() : 0);
+            return clipboard != null ? clipboard : "";
         }
         // Ensure yankIndex is valid (ring may have changed)
-        if (yankIndex >= ring.size()) {
+        if (yankIndex >= size) {
             yankIndex = 0;
         }
-        String text = getAtIndex(yankIndex);
+        String text = getAtIndex(yankIndex).text();
         lastYankLength = text.length();
         LOGGER.debug("Yank from ring[{}]: {} chars", yankIndex, text.length());
         return text;
     }
 
+    // ========== Browsing ==========
+
+    /**
+     * Find the entries containing the query (ignoring case), newest first.
+     * Compressed entries match on their plain prefix.
+     * Queries of three or more characters are narrowed through the trigram
+     * index; shorter ones scan the ring.
+     */
+    public static List<KillEntry> filter(String query) {
+        replaySavedKills();
+        pullSharedKills();
+        String folded = TrigramIndex.fold(query);
+        List<KillEntry> results = new ArrayList<>();
+        Set<KillEntry> candidates = textIndex.candidates(query);
+        if (candidates == null) {
+            for (int i = 0; i < size; i++) {
+                KillEntry entry = getAtIndex(i);
+                if (TrigramIndex.contains(entry.searchText(), folded)) {
+                    results.add(entry);
+                }
+            }
+            return results;
+        }
+        for (KillEntry candidate : candidates) {
+            if (TrigramIndex.contains(candidate.searchText(), folded)) {
+                // The slot holds the newest copy of the text, with its current metadata
+                results.add(slots[slotIndex.get(candidate)]);
+            }
+        }
+        results.sort(Comparator.comparingInt(entry -> indexOf(slotIndex.get(entry))));
+        return results;
+    }
+
+    /**
+     * Narrow earlier results of {@link #filter} to the entries containing a
+     * longer query, keeping their order. Queries of three or more characters
+     * only check the previous results that the trigram index also yields.
+     */
+    public static List<KillEntry> narrow(List<KillEntry> previous, String query) {
+        String folded = TrigramIndex.fold(query);
+        Set<KillEntry> candidates = textIndex.candidates(query);
+        List<KillEntry> results = new ArrayList<>();
+        for (KillEntry entry : previous) {
+            if ((candidates == null || candidates.contains(entry))
+                    && TrigramIndex.contains(entry.searchText(), folded)) {
+                results.add(entry);
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Make an entry the next one yanked, so C-y inserts it and M-y continues from it.
+     * @return false if the entry is no longer in the ring
+     */
+    public static boolean selectForYank(KillEntry entry) {
+        Integer slot = slotIndex.get(entry);
+        if (slot == null) {
+            return false;
+        }
+        yankIndex = indexOf(slot);
+        return true;
+    }
+
+    // ========== Circular Buffer ==========
+
+    /**
+     * Get the entry at a ring index (0 is the newest). O(1).
+     */
+    private static KillEntry getAtIndex(int index) {
+        return slots[slotOf(index)];
+    }
+
+    private static int slotOf(int index) {
+        return (head + index) % slots.length;
+    }
+
+    private static int indexOf(int slot) {
+        return (slot - head + slots.length) % slots.length;
+    }
+
+    /**
+     * Put an entry at the front of the ring. If its text is already in the ring,
+     * the existing entry is replaced and moved to the front instead of adding a duplicate.
+     */
+    private static void add(KillEntry entry) {
+        Integer slot = slotIndex.get(entry);
+        if (slot != null) {
+            slots[slot] = entry;
+            moveToFront(slot);
+            return;
+        }
+        if (size == slots.length) {
+            removeOldest();
+        }
+        head = (head - 1 + slots.length) % slots.length;
+        put(head, entry);
+    }
+
+    /**
+     * Put an entry at the back of the ring if there is room and its text is not already present.
+     */
+    private static void addLast(KillEntry entry) {
+        if (size == slots.length || slotIndex.containsKey(entry)) {
+            return;
+        }
+        put(slotOf(size), entry);
+    }
+
+    private static void put(int slot, KillEntry entry) {
+        slots[slot] = entry;
+        slotIndex.put(entry, slot);
+        textIndex.add(entry, entry.searchText());
+        size++;
+        ringBytes += entry.storedBytes();
+    }
+
+    /**
+     * Shift the entries in front of a slot back by one and put its entry first.
+     */
+    private static void moveToFront(int slot) {
+        int index = indexOf(slot);
+        KillEntry entry = slots[slot];
+        for (int i = index; i > 0; i--) {
+            int to = slotOf(i);
+            slots[to] = slots[slotOf(i - 1)];
+            slotIndex.put(slots[to], to);
+        }
+        slots[head] = entry;
+        slotIndex.put(entry, head);
+    }
+
+    private static void removeNewest() {
+        clear(head);
+        head = (head + 1) % slots.length;
+    }
+
+    private static void removeOldest() {
+        clear(slotOf(size - 1));
+    }
+
+    private static void clear(int slot) {
+        KillEntry entry = slots[slot];
+        slots[slot] = null;
+        slotIndex.remove(entry);
+        textIndex.remove(entry, entry.searchText());
+        ringBytes -= entry.storedBytes();
+        size--;
+    }
+
+    /**
+     * Resize the buffer when the configured ring size changes, keeping the newest entries.
+     */
+    private static void ensureCapacity() {
+        int capacity = ConfigHelper.getKillRingSize();
+        if (slots.length == capacity) {
+            return;
+        }
+        KillEntry[] old = slots;
+        int oldHead = head;
+        int oldSize = size;
+        slots = new KillEntry[capacity];
+        head = 0;
+        size = 0;
+        slotIndex.clear();
+        textIndex.clear();
+        ringBytes = 0;
+        for (int i = 0; i < oldSize && i < capacity; i++) {
+            addLast(old[(oldHead + i) % old.length]);
+        }
+    }
+
+    /**
+     * Drop the oldest entries until the ring fits its byte limit.
+     * Compressed entries count for their compressed size.
+     * The newest entry is always kept.
+     */
+    private static void trimToLimits() {
+        long maxBytes = ConfigHelper.getKillRingMaxBytes();
+        while (size > 1 && ringBytes > maxBytes) {
+            removeOldest();
+        }
+    }
+
+    /**
+     * Start reading the kills saved by previous sessions in the background.
+     * Called when the game starts.
+     */
+    public static void loadSavedKills() {
+        if (replaying == null && ConfigHelper.isKillRingPersistent()) {
+            replaying = KillRingLog.replay(ConfigHelper.getKillRingSize(), ConfigHelper.getKillRingMaxBytes());
+        }
+    }
+
+    /**
+     * Append kills saved by previous sessions behind this session's kills,
+     * once they have been read. Never waits for the log: until it is read,
+     * yanks use this session's kills only.
+     */
+    private static void replaySavedKills() {
+        if (replayed) {
+            return;
+        }
+        ensureCapacity();
+        if (!ConfigHelper.isKillRingPersistent()) {
+            replayed = true;
+            return;
+        }
+        loadSavedKills();
+        if (!replaying.isDone()) {
+            return;
+        }
+        replayed = true;
+        List<KillEntry> saved;
+        try {
+            saved = replaying.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        } catch (ExecutionException e) {
+            LOGGER.warn("Failed to replay kill ring log", e);
+            return;
+        }
+        for (KillEntry entry : saved) {
+            addLast(entry);
+        }
+        trimToLimits();
+        LOGGER.debug("Replayed {} saved kills, ring size: {}", saved.size(), size);
+    }
+
     /**
-     * Get element at index by iteration (ArrayDeque doesn't support random access).
-     * This is O(n) but acceptable for a small ring size and infrequent access.
+     * Put kills published by other game instances at the front of the ring,
+     * as if they had been killed here.
      */
-    private static String getAtIndex(int index) {
-        Iterator<String> it = ring.iterator();
-        for (int i = 0; i < index && it.hasNext(); i++) {
-            it.next();
+    private static void pullSharedKills() {
+        if (!ConfigHelper.isKillRingShared()) {
+            return;
+        }
+        List<KillEntry> shared = SharedKillRing.poll();
+        if (shared.isEmpty()) {
+            return;
+        }
+        ensureCapacity();
+        for (KillEntry entry : shared) {
+            add(entry);
+            if (ConfigHelper.isKillRingPersistent()) {
+                KillRingLog.append(entry, false, ConfigHelper.getKillRingSize(), ConfigHelper.getKillRingMaxBytes());
+            }
         }
-        return it.hasNext() ? it.next() : ring.getFirst();
+        trimToLimits();
+        // Like a local kill, the newest shared kill is what C-y yanks next
+        yankIndex = 0;
+        expectedCursorAfterYank = -1;
+        lastKillCursor = -1;
+        LOGGER.debug("Added {} shared kills, ring size: {}", shared.size(), size);
     }
 
+    // ========== Yank Tracking ==========
+
     /**
      * Record that a yank just completed at the given cursor position.
      * This enables yank-pop (M-y) to work.
@@ -108,7 +470,7 @@ public class KillRing {
     public static boolean canYankPop(int currentCursor) {
         boolean can = expectedCursorAfterYank >= 0
                    && currentCursor == expectedCursorAfterYank
-                   && !ring.isEmpty();
+                   && size > 0;
         LOGGER.debug("canYankPop: current={}, expected={}, result={}",
                      currentCursor, expectedCursorAfterYank, can);
         return can;
@@ -122,8 +484,8 @@ public class KillRing {
         if (!canYankPop(currentCursor)) {
             return null;
         }
-        yankIndex = (yankIndex + 1) % ring.size();
-        String text = getAtIndex(yankIndex);
+        yankIndex = (yankIndex + 1) % size;
+        String text = getAtIndex(yankIndex).text();
         lastYankLength = text.length();
         LOGGER.debug("Yank-pop to ring[{}]: {} chars", yankIndex, text.length());
         return text;
@@ -148,8 +510,10 @@ public class KillRing {
     /**
      * Clear yank-pop tracking (called when non-yank operations happen).
      * This is optional - position-based tracking handles most cases automatically.
+     * Also ends kill merging, so the next kill starts a new entry.
      */
     public static void clearYankTracking() {
         expectedCursorAfterYank = -1;
+        lastKillCursor = -1;
     }
 }
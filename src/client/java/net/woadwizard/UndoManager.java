@@ -1,27 +1,44 @@
 package net.woadwizard;
 
+import net.woadwizard.config.ConfigHelper;
+import net.woadwizard.emacs.TextFieldAdapter;
 import net.woadwizard.emacs.WidgetState;
+import net.woadwizard.undo.PagedDocument;
+import net.woadwizard.undo.TextEdit;
+import net.woadwizard.undo.UndoSessionStore;
+import net.woadwizard.undo.UndoTree;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.ArrayDeque;
-import java.util.Deque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.WeakHashMap;
+import java.util.function.Predicate;
 
 /**
  * Undo manager for text fields with Emacs-style change amalgamation.
  * Consecutive character insertions and deletions are grouped together,
  * so one undo reverts multiple characters instead of one at a time.
+ *
+ * History is stored per widget as an UndoTree of compact edits, so edits
+ * made after an undo start a new branch instead of discarding redo history.
+ * Widgets bound to a session key keep their history across screen instances
+ * through UndoSessionStore. A widget editing a PagedDocument (a book) has one
+ * history for all pages, with each edit tagged by page.
  */
 public class UndoManager {
     private static final Logger LOGGER = LoggerFactory.getLogger(UndoManager.class);
-    private static final int MAX_UNDO_HISTORY = 100;
-    private static final int AMALGAMATE_LIMIT = 20;
+    // Per-widget state limit; overall memory is bounded by the global undo budget
+    private static final int MAX_UNDO_HISTORY = 1000;
 
-    private static final Map<Object, Deque<UndoState>> undoStacks = new WeakHashMap<>();
-    private static final Map<Object, Deque<UndoState>> redoStacks = new WeakHashMap<>();
+    private static final Map<Object, UndoTree> histories = new WeakHashMap<>();
     private static final Map<Object, AmalgamationState> amalgamationStates = new WeakHashMap<>();
+    private static final Set<TextFieldAdapter> boundAdapters = Collections.newSetFromMap(new WeakHashMap<>());
+    private static long accessClock = 0;
 
     /**
      * Types of operations for amalgamation tracking.
@@ -40,29 +57,35 @@ public class UndoManager {
         int operationCount;
         String boundaryText;
         int boundaryCursor;
+        int boundaryPage;
+        long lastTimestamp;
 
         void reset() {
             lastOperation = null;
             operationCount = 0;
             boundaryText = null;
             boundaryCursor = -1;
+            boundaryPage = 0;
+            lastTimestamp = 0;
         }
     }
 
     /**
      * Record state for a character insertion (typing).
-     * Consecutive inserts are amalgamated up to AMALGAMATE_LIMIT.
+     * Consecutive inserts are amalgamated until an idle gap, or until the
+     * configured character count is reached and the next word begins.
+     * @param codePoint the character about to be inserted
      */
-    public static void recordStateForInsert(Object widget, WidgetState state, String text, int cursorPos) {
-        recordStateWithAmalgamation(widget, state, text, cursorPos, OperationType.INSERT);
+    public static void recordStateForInsert(Object widget, WidgetState state, String text, int cursorPos, int codePoint) {
+        recordStateWithAmalgamation(widget, state, text, cursorPos, OperationType.INSERT, codePoint);
     }
 
     /**
      * Record state for a deletion (backspace/delete).
-     * Consecutive deletes are amalgamated up to AMALGAMATE_LIMIT.
+     * Consecutive deletes are amalgamated until an idle gap or the configured character count.
      */
     public static void recordStateForDelete(Object widget, WidgetState state, String text, int cursorPos) {
-        recordStateWithAmalgamation(widget, state, text, cursorPos, OperationType.DELETE);
+        recordStateWithAmalgamation(widget, state, text, cursorPos, OperationType.DELETE, -1);
     }
 
     /**
@@ -70,43 +93,33 @@ public class UndoManager {
      * Commands always create a boundary (no amalgamation).
      */
     public static void recordState(Object widget, WidgetState state, String text, int cursorPos) {
-        recordStateWithAmalgamation(widget, state, text, cursorPos, OperationType.COMMAND);
+        recordStateWithAmalgamation(widget, state, text, cursorPos, OperationType.COMMAND, -1);
     }
 
     /**
      * Core recording logic with amalgamation support.
      */
     private static void recordStateWithAmalgamation(Object widget, WidgetState state,
-            String text, int cursorPos, OperationType opType) {
+            String text, int cursorPos, OperationType opType, int codePoint) {
         if (widget == null || (state != null && (state.isUndoing() || state.isRedoing()))) {
             return;
         }
 
-        // Clear redo stack on new changes
-        redoStacks.remove(widget);
-
+        // New changes start a new branch in the undo tree; existing redo
+        // history stays reachable as a sibling branch.
+        UndoTree tree = getOrCreateTree(widget, state);
         AmalgamationState amalg = amalgamationStates.computeIfAbsent(widget, k -> new AmalgamationState());
-        Deque<UndoState> stack = undoStacks.computeIfAbsent(widget, k -> new ArrayDeque<>());
-
-        boolean needsBoundary = false;
 
-        // Commands always create a boundary
-        if (opType == OperationType.COMMAND) {
-            needsBoundary = true;
-        }
-        // Operation type changed - save the amalgamated state and start fresh
-        else if (amalg.lastOperation != null && amalg.lastOperation != opType) {
-            needsBoundary = true;
-        }
-        // Hit the amalgamation limit
-        else if (amalg.operationCount >= AMALGAMATE_LIMIT) {
-            needsBoundary = true;
-        }
+        long now = System.currentTimeMillis();
+        int page = pageOf(state);
+        boolean needsBoundary = opType == OperationType.COMMAND
+            || (amalg.boundaryText != null && amalg.boundaryPage != page)
+            || shouldCloseGroup(amalg, opType, text, cursorPos, codePoint, now);
 
         if (needsBoundary) {
             // If we have an amalgamated boundary, push it
             if (amalg.boundaryText != null) {
-                pushState(stack, amalg.boundaryText, amalg.boundaryCursor);
+                commit(tree, amalg.boundaryPage, amalg.boundaryText, amalg.boundaryCursor);
             }
             // Reset and start new amalgamation group
             amalg.reset();
@@ -118,16 +131,59 @@ public class UndoManager {
                 // First operation in this group - save as boundary
                 amalg.boundaryText = text;
                 amalg.boundaryCursor = cursorPos;
+                amalg.boundaryPage = page;
             }
             amalg.lastOperation = opType;
             amalg.operationCount++;
+            amalg.lastTimestamp = now;
             LOGGER.debug("Amalgamating {}: count={}", opType, amalg.operationCount);
         } else {
             // Commands push state immediately
-            pushState(stack, text, cursorPos);
+            commit(tree, page, text, cursorPos);
             amalg.reset();
-            LOGGER.debug("Command boundary: cursor={}, stackSize={}", cursorPos, stack.size());
+            LOGGER.debug("Command boundary: cursor={}, treeSize={}", cursorPos, tree.size());
+        }
+    }
+
+    /**
+     * Decide whether the current amalgamation group should be closed before
+     * recording another insert or delete.
+     */
+    private static boolean shouldCloseGroup(AmalgamationState amalg, OperationType opType,
+            String text, int cursorPos, int codePoint, long now) {
+        if (amalg.lastOperation == null) {
+            return false;
+        }
+        // Operation type changed - save the amalgamated state and start fresh
+        if (amalg.lastOperation != opType) {
+            return true;
+        }
+        // Paused long enough that this reads as a separate edit
+        long idleMs = ConfigHelper.getUndoAmalgamateIdleMs();
+        if (idleMs > 0 && now - amalg.lastTimestamp > idleMs) {
+            return true;
+        }
+        int limit = ConfigHelper.getUndoAmalgamateLimit();
+        if (amalg.operationCount < limit) {
+            return false;
         }
+        if (opType != OperationType.INSERT || !ConfigHelper.isUndoAmalgamateAtWordBoundary()) {
+            return true;
+        }
+        // Past the limit: wait for the next word to start so groups hold whole
+        // words, but don't let a single group grow without bound
+        return isWordStart(text, cursorPos, codePoint) || amalg.operationCount >= 2 * limit;
+    }
+
+    /**
+     * Check if inserting codePoint at cursorPos begins a new word.
+     */
+    private static boolean isWordStart(String text, int cursorPos, int codePoint) {
+        return codePoint >= 0
+            && !Character.isWhitespace(codePoint)
+            && cursorPos > 0
+            && cursorPos <= text.length()
+            && Character.isWhitespace(text.charAt(cursorPos - 1));
     }
 
     /**
@@ -139,30 +195,78 @@ public class UndoManager {
 
         AmalgamationState amalg = amalgamationStates.get(widget);
         if (amalg != null && amalg.boundaryText != null) {
-            Deque<UndoState> stack = undoStacks.computeIfAbsent(widget, k -> new ArrayDeque<>());
-            pushState(stack, amalg.boundaryText, amalg.boundaryCursor);
+            UndoTree tree = getOrCreateTree(widget, null);
+            commit(tree, amalg.boundaryPage, amalg.boundaryText, amalg.boundaryCursor);
             amalg.reset();
         }
     }
 
-    private static void pushState(Deque<UndoState> stack, String text, int cursorPos) {
-        // Don't push duplicates
-        if (!stack.isEmpty()) {
-            UndoState top = stack.peek();
-            if (top.text.equals(text) && top.cursorPos == cursorPos) {
-                return;
-            }
-        }
-        stack.push(new UndoState(text, cursorPos));
-        while (stack.size() > MAX_UNDO_HISTORY) {
-            stack.removeLast();
-        }
-    }
-
     /**
      * Undo to the previous state.
      */
     public static UndoState undo(Object widget, WidgetState state, String currentText, int currentCursorPos) {
+        return navigate(widget, state, currentText, currentCursorPos, "Undo", tree -> false, UndoTree::undo);
+    }
+
+    /**
+     * Redo to the next state along the most recently visited branch.
+     */
+    public static UndoState redo(Object widget, WidgetState state, String currentText, int currentCursorPos) {
+        return navigate(widget, state, currentText, currentCursorPos, "Redo", tree -> true, UndoTree::redo);
+    }
+
+    /**
+     * Undo the most recent change inside [start, end), leaving changes
+     * elsewhere in the text intact. The result is recorded as a new state,
+     * so a normal undo afterwards restores the region-undone text.
+     */
+    public static UndoState undoInRegion(Object widget, WidgetState state, String currentText,
+            int currentCursorPos, int start, int end) {
+        int page = pageOf(state);
+        return navigate(widget, state, currentText, currentCursorPos, "Undo in region", tree -> false,
+            tree -> tree.undoInRegion(page, start, end));
+    }
+
+    /**
+     * Switch to the adjacent sibling branch at the current node.
+     * @param direction positive for the newer sibling, negative for the older one
+     */
+    public static UndoState switchBranch(Object widget, WidgetState state, String currentText,
+            int currentCursorPos, int direction) {
+        return navigate(widget, state, currentText, currentCursorPos, "Switch branch", tree -> direction > 0,
+            tree -> tree.switchBranch(direction));
+    }
+
+    /**
+     * Step to the state recorded just before or after the current one,
+     * across branches (like vim's g- and g+).
+     * @param direction positive for newer, negative for older
+     */
+    public static UndoState stepChronologically(Object widget, WidgetState state, String currentText,
+            int currentCursorPos, int direction) {
+        return navigate(widget, state, currentText, currentCursorPos, "Time travel", tree -> direction > 0,
+            tree -> tree.stepChronologically(direction));
+    }
+
+    /**
+     * Jump to any state in the undo tree by its sequence number.
+     */
+    public static UndoState jumpTo(Object widget, WidgetState state, String currentText,
+            int currentCursorPos, int seq) {
+        return navigate(widget, state, currentText, currentCursorPos, "Jump",
+            tree -> seq > tree.current().seq(), tree -> tree.jumpTo(seq));
+    }
+
+    /**
+     * Shared logic for moving through the undo tree.
+     * Any changes since the last boundary are committed first, so they remain
+     * reachable as their own node. For paged documents, other pages changed by
+     * the move are written back and the page the move landed on is shown.
+     * @param forward whether the move goes to a newer state, and so is a redo
+     *                rather than an undo; checked once pending changes are committed
+     */
+    private static UndoState navigate(Object widget, WidgetState state, String currentText,
+            int currentCursorPos, String label, Predicate<UndoTree> forward, Predicate<UndoTree> move) {
         if (widget == null) {
             return null;
         }
@@ -170,79 +274,213 @@ public class UndoManager {
         // Force boundary to ensure pending changes are saved
         forceBoundary(widget);
 
-        Deque<UndoState> stack = undoStacks.get(widget);
-        if (stack == null || stack.isEmpty()) {
-            LOGGER.debug("Undo: no history available");
+        UndoTree tree = getTree(widget, state);
+        if (tree == null || tree.isEmpty()) {
+            LOGGER.debug("{}: no history available", label);
             return null;
         }
 
-        if (state != null) {
-            state.setUndoing(true);
-        }
+        int page = pageOf(state);
+        commit(tree, page, currentText, currentCursorPos);
+        boolean redoing = forward.test(tree);
+        setNavigating(state, redoing, true);
 
         try {
-            UndoState previousState = stack.pop();
-
-            // If the previous state matches current state, try the one before
-            if (previousState.text.equals(currentText)) {
-                if (stack.isEmpty()) {
-                    stack.push(previousState);
-                    LOGGER.debug("Undo: current state matches only available state");
-                    return null;
+            if (!move.test(tree)) {
+                LOGGER.debug("{}: nothing to move to", label);
+                return null;
+            }
+            LOGGER.debug("{}: moved to node {}, page={}, cursor={}",
+                label, tree.current().seq(), tree.page(), tree.cursor());
+
+            PagedDocument document = state != null ? state.getDocument() : null;
+            if (document == null || tree.page() == page) {
+                if (document != null) {
+                    syncPages(document, tree, page);
                 }
-                pushToRedo(widget, currentText, currentCursorPos);
-                previousState = stack.pop();
+                return UndoState.between(currentText, tree.text(), tree.cursor());
             }
+            // The change was on another page: turn to it, then patch its old text
+            String previousText = document.getPageText(tree.page());
+            syncPages(document, tree, tree.page());
+            document.showPage(tree.page());
+            return UndoState.between(previousText, tree.text(), tree.cursor());
+        } finally {
+            setNavigating(state, redoing, false);
+        }
+    }
+
+    /**
+     * Set the undoing or redoing flag, whichever matches the direction of the move.
+     */
+    private static void setNavigating(WidgetState state, boolean redoing, boolean value) {
+        if (state == null) {
+            return;
+        }
+        if (redoing) {
+            state.setRedoing(value);
+        } else {
+            state.setUndoing(value);
+        }
+    }
 
-            pushToRedo(widget, currentText, currentCursorPos);
+    /**
+     * Page of the document the widget is showing, or 0 for plain text fields.
+     */
+    private static int pageOf(WidgetState state) {
+        PagedDocument document = state != null ? state.getDocument() : null;
+        return document != null ? document.getCurrentPage() : 0;
+    }
 
-            LOGGER.debug("Undo: restored to cursor={}, remainingStates={}", previousState.cursorPos, stack.size());
-            return previousState;
-        } finally {
-            if (state != null) {
-                state.setUndoing(false);
+    /**
+     * Write back the pages a move changed, except the one the widget will show.
+     */
+    private static void syncPages(PagedDocument document, UndoTree tree, int shownPage) {
+        for (int changed : tree.changedPages()) {
+            if (changed != shownPage) {
+                document.setPageText(changed, tree.text(changed));
             }
         }
     }
 
     /**
-     * Redo to the next state.
+     * Get the undo tree for a widget, restoring it from the session store
+     * the first time a widget bound to a session key is used.
      */
-    public static UndoState redo(Object widget, WidgetState state, String currentText, int currentCursorPos) {
-        if (widget == null) {
-            return null;
+    private static UndoTree getTree(Object widget, WidgetState state) {
+        UndoTree tree = histories.get(widget);
+        if (tree == null && state != null && state.getSessionKey() != null) {
+            tree = UndoSessionStore.restore(state.getSessionKey(), MAX_UNDO_HISTORY);
+            if (tree != null) {
+                histories.put(widget, tree);
+            }
         }
-        Deque<UndoState> redoStack = redoStacks.get(widget);
-        if (redoStack == null || redoStack.isEmpty()) {
-            LOGGER.debug("Redo: no redo history available");
-            return null;
+        if (tree != null) {
+            tree.markAccessed(++accessClock);
         }
+        return tree;
+    }
 
-        if (state != null) {
-            state.setRedoing(true);
+    private static UndoTree getOrCreateTree(Object widget, WidgetState state) {
+        UndoTree tree = getTree(widget, state);
+        if (tree == null) {
+            tree = new UndoTree(MAX_UNDO_HISTORY);
+            tree.markAccessed(++accessClock);
+            histories.put(widget, tree);
         }
+        return tree;
+    }
 
-        try {
-            UndoState redoState = redoStack.pop();
+    /**
+     * Commit a state to a tree, then bring total undo memory back under budget.
+     */
+    private static void commit(UndoTree tree, int page, String text, int cursorPos) {
+        if (tree.commit(page, text, cursorPos)) {
+            enforceMemoryBudget();
+        }
+    }
 
-            Deque<UndoState> undoStack = undoStacks.computeIfAbsent(widget, k -> new ArrayDeque<>());
-            undoStack.push(new UndoState(currentText, currentCursorPos));
+    // ========== Memory Budget ==========
 
-            LOGGER.debug("Redo: restored to cursor={}, remainingRedoStates={}", redoState.cursorPos, redoStack.size());
-            return redoState;
-        } finally {
-            if (state != null) {
-                state.setRedoing(false);
+    /**
+     * Snapshot of how much memory undo history is using across all widgets.
+     */
+    public record MemoryUsage(long usedBytes, long budgetBytes, int widgets, int states) {}
+
+    /**
+     * Get current undo memory usage across all widgets.
+     */
+    public static MemoryUsage getMemoryUsage() {
+        long used = 0;
+        int states = 0;
+        for (UndoTree tree : histories.values()) {
+            used += tree.memoryUsage();
+            states += tree.size();
+        }
+        return new MemoryUsage(used, ConfigHelper.getUndoMemoryBudgetBytes(), histories.size(), states);
+    }
+
+    /**
+     * Evict the oldest undo states of the least recently used widgets first
+     * until the total fits in the configured budget. A widget's current state
+     * is never evicted, so the most recently used widget always keeps at least that.
+     */
+    private static void enforceMemoryBudget() {
+        long budget = ConfigHelper.getUndoMemoryBudgetBytes();
+        long used = 0;
+        for (UndoTree tree : histories.values()) {
+            used += tree.memoryUsage();
+        }
+        if (used <= budget) {
+            return;
+        }
+
+        List<UndoTree> byAge = new ArrayList<>(histories.values());
+        byAge.sort(Comparator.comparingLong(UndoTree::lastAccess));
+        long before = used;
+        for (UndoTree tree : byAge) {
+            while (used > budget) {
+                long treeBefore = tree.memoryUsage();
+                if (!tree.evictOldest()) {
+                    break;
+                }
+                used -= treeBefore - tree.memoryUsage();
             }
+            if (used <= budget) {
+                break;
+            }
+        }
+        LOGGER.debug("Undo memory over budget: evicted {} bytes, now {}/{} bytes", before - used, used, budget);
+    }
+
+    // ========== Session Persistence ==========
+
+    /**
+     * Bind a widget to a stable session key. Its undo history is saved under
+     * that key when the screen closes and restored lazily the next time a
+     * widget with the same key is edited.
+     */
+    public static void bindSession(TextFieldAdapter adapter, String key) {
+        if (adapter == null || key == null) {
+            return;
         }
+        adapter.getState().setSessionKey(key);
+        boundAdapters.add(adapter);
     }
 
-    private static void pushToRedo(Object widget, String text, int cursorPos) {
-        Deque<UndoState> redoStack = redoStacks.computeIfAbsent(widget, k -> new ArrayDeque<>());
-        redoStack.push(new UndoState(text, cursorPos));
-        while (redoStack.size() > MAX_UNDO_HISTORY) {
-            redoStack.removeLast();
+    /**
+     * Save the undo history of every bound widget to the session store.
+     * Called when a screen is removed; the widgets are unbound afterwards.
+     */
+    public static void saveBoundSessions() {
+        if (boundAdapters.isEmpty()) {
+            return;
         }
+        for (TextFieldAdapter adapter : boundAdapters) {
+            saveSession(adapter);
+        }
+        boundAdapters.clear();
+    }
+
+    private static void saveSession(TextFieldAdapter adapter) {
+        Object widget = adapter.getWidget();
+        WidgetState state = adapter.getState();
+        String key = state.getSessionKey();
+        if (widget == null || key == null) {
+            return;
+        }
+        forceBoundary(widget);
+        UndoTree tree = histories.get(widget);
+        if (tree == null) {
+            return;
+        }
+        // Include any edits since the last boundary so nothing is lost on close
+        tree.commit(pageOf(state), adapter.getText(), adapter.getCursor());
+        UndoSessionStore.save(key, tree);
+        state.setSessionKey(null);
+        state.setDocument(null);
+        // The store now owns this history; free the live copy
+        clear(widget);
     }
 
     /**
@@ -250,22 +488,41 @@ public class UndoManager {
      */
     public static void clear(Object widget) {
         if (widget != null) {
-            undoStacks.remove(widget);
-            redoStacks.remove(widget);
+            histories.remove(widget);
             amalgamationStates.remove(widget);
         }
     }
 
     /**
-     * Represents a saved text state.
+     * Represents a saved text state, along with the span of the previous text
+     * that has to change to reach it.
      */
     public static class UndoState {
         public final String text;
         public final int cursorPos;
+        // [spanStart, spanEnd) of the previous text is replaced by replacement
+        public final int spanStart;
+        public final int spanEnd;
+        public final String replacement;
 
-        public UndoState(String text, int cursorPos) {
+        public UndoState(String text, int cursorPos, int spanStart, int spanEnd, String replacement) {
             this.text = text;
             this.cursorPos = cursorPos;
+            this.spanStart = spanStart;
+            this.spanEnd = spanEnd;
+            this.replacement = replacement;
+        }
+
+        /**
+         * Build the state for moving from previousText to text.
+         */
+        static UndoState between(String previousText, String text, int cursorPos) {
+            TextEdit edit = TextEdit.between(previousText, cursorPos, text, cursorPos);
+            if (edit == null) {
+                return new UndoState(text, cursorPos, 0, 0, "");
+            }
+            return new UndoState(text, cursorPos, edit.offset(),
+                edit.offset() + edit.removed().length(), edit.inserted());
         }
     }
 }
@@ -7,6 +7,7 @@ import net.woadwizard.emacs.GraphemeUtils;
 import net.woadwizard.emacs.TextFieldAdapter;
 import net.woadwizard.emacs.TextOperations;
 import net.woadwizard.emacs.WidgetState;
+import net.woadwizard.killring.KillRingBrowser;
 import org.lwjgl.glfw.GLFW;
 
 import java.util.HashMap;
@@ -96,6 +97,9 @@ public enum Command {
     META_Y("M-y", Modifier.ALT, Category.KILL_RING, GLFW.GLFW_KEY_Y,
            (field, selecting) -> { TextOperations.yankPop(field); return Result.HANDLED; }),
 
+    META_SHIFT_Y("M-Y", Modifier.ALT, Category.KILL_RING, GLFW.GLFW_KEY_Y,
+           (field, selecting) -> { KillRingBrowser.open(field); return Result.HANDLED; }),
+
     // Undo/Redo
     CTRL_SLASH("C-/", Modifier.CTRL, Category.UNDO, GLFW.GLFW_KEY_SLASH,
            (field, selecting) -> { TextOperations.performUndo(field); return Result.HANDLED; }),
@@ -103,6 +107,19 @@ public enum Command {
     CTRL_SHIFT_SLASH("C-S-/", Modifier.CTRL, Category.UNDO, GLFW.GLFW_KEY_SLASH,
            (field, selecting) -> { TextOperations.performRedo(field); return Result.HANDLED; }),
 
+    // Undo tree navigation - Alt
+    META_LEFT_BRACKET("M-[", Modifier.ALT, Category.UNDO, GLFW.GLFW_KEY_LEFT_BRACKET,
+           (field, selecting) -> { TextOperations.switchUndoBranch(field, -1); return Result.HANDLED; }),
+
+    META_RIGHT_BRACKET("M-]", Modifier.ALT, Category.UNDO, GLFW.GLFW_KEY_RIGHT_BRACKET,
+           (field, selecting) -> { TextOperations.switchUndoBranch(field, 1); return Result.HANDLED; }),
+
+    META_MINUS("M--", Modifier.ALT, Category.UNDO, GLFW.GLFW_KEY_MINUS,
+           (field, selecting) -> { TextOperations.undoTimeTravel(field, -1); return Result.HANDLED; }),
+
+    META_EQUAL("M-=", Modifier.ALT, Category.UNDO, GLFW.GLFW_KEY_EQUAL,
+           (field, selecting) -> { TextOperations.undoTimeTravel(field, 1); return Result.HANDLED; }),
+
     // Transpose
     CTRL_T("C-t", Modifier.CTRL, Category.TRANSPOSE, GLFW.GLFW_KEY_T,
            (field, selecting) -> { TextOperations.transposeCharacters(field); return Result.HANDLED; }),
@@ -141,6 +158,7 @@ public enum Command {
     // History search - handled by ChatScreenMixin
     CTRL_R("C-r", Modifier.CTRL, Category.HISTORY_SEARCH, GLFW.GLFW_KEY_R, null),
     CTRL_S("C-s", Modifier.CTRL, Category.HISTORY_SEARCH, GLFW.GLFW_KEY_S, null),
+    META_SHIFT_R("M-R", Modifier.ALT, Category.HISTORY_SEARCH, GLFW.GLFW_KEY_R, null),
     ;
 
     /**
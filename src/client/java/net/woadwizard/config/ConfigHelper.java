@@ -103,6 +103,98 @@ public final class ConfigHelper {
         return get().historySearch.caseSensitive;
     }
 
+    /**
+     * Check if history search covers chat and commands together, rather than
+     * whichever one the input looks like.
+     */
+    public static boolean isHistoryMerged() {
+        return get().historySearch.merged;
+    }
+
+    /**
+     * Check if sent chat and commands should be saved per world for history search.
+     */
+    public static boolean isHistoryPersistent() {
+        return get().historySearch.persistent;
+    }
+
+    /**
+     * Get the maximum number of saved chat messages (and, separately, commands) searched per world.
+     */
+    public static int getHistoryMaxEntries() {
+        return Math.max(1, get().historySearch.maxEntries);
+    }
+
+    /**
+     * Get the maximum number of received chat messages kept for searching with M-R.
+     */
+    public static int getReceivedChatMaxEntries() {
+        return Math.max(1, get().historySearch.receivedMaxEntries);
+    }
+
+    /**
+     * Get the maximum number of entries kept in each input history (command blocks, anvils, book titles, signs).
+     */
+    public static int getInputHistoryMaxEntries() {
+        return Math.max(1, get().historySearch.inputMaxEntries);
+    }
+
+    /**
+     * Get the memory budget shared by the undo history of all widgets, in bytes.
+     */
+    public static long getUndoMemoryBudgetBytes() {
+        return Math.max(0, get().undo.memoryBudgetKb) * 1024L;
+    }
+
+    /**
+     * Get the number of typed or deleted characters grouped into one undo step.
+     */
+    public static int getUndoAmalgamateLimit() {
+        return Math.max(1, get().undo.amalgamateLimit);
+    }
+
+    /**
+     * Get the typing pause, in milliseconds, that closes an undo group (0 disables).
+     */
+    public static long getUndoAmalgamateIdleMs() {
+        return Math.max(0, get().undo.amalgamateIdleMs);
+    }
+
+    /**
+     * Check if full undo groups should wait for the next word to start before closing.
+     */
+    public static boolean isUndoAmalgamateAtWordBoundary() {
+        return get().undo.amalgamateAtWordBoundary;
+    }
+
+    /**
+     * Get the maximum number of entries kept in the kill ring.
+     */
+    public static int getKillRingSize() {
+        return Math.max(1, get().killRing.ringSize);
+    }
+
+    /**
+     * Get the maximum total size of kill ring entries, in bytes.
+     */
+    public static long getKillRingMaxBytes() {
+        return Math.max(1, get().killRing.maxKb) * 1024L;
+    }
+
+    /**
+     * Check if the kill ring should be saved across game restarts.
+     */
+    public static boolean isKillRingPersistent() {
+        return get().killRing.persistent;
+    }
+
+    /**
+     * Check if kills should be shared with other game instances on this machine.
+     */
+    public static boolean isKillRingShared() {
+        return get().killRing.shared;
+    }
+
     /**
      * Get the Alt key behavior for Mac.
      */
@@ -32,6 +32,12 @@ public class ModConfig implements ConfigData {
     @ConfigEntry.Gui.CollapsibleObject
     public Keybinds keybinds = new Keybinds();
 
+    @ConfigEntry.Gui.CollapsibleObject
+    public Undo undo = new Undo();
+
+    @ConfigEntry.Gui.CollapsibleObject
+    public KillRing killRing = new KillRing();
+
     @ConfigEntry.Gui.CollapsibleObject
     public HistorySearch historySearch = new HistorySearch();
 
@@ -72,12 +78,55 @@ public class ModConfig implements ConfigData {
         public boolean caseConversionEnabled = true;
     }
 
+    public static class Undo {
+        @ConfigEntry.Gui.Tooltip
+        public int memoryBudgetKb = 8192;
+
+        @ConfigEntry.Gui.Tooltip
+        public int amalgamateLimit = 20;
+
+        @ConfigEntry.Gui.Tooltip
+        public int amalgamateIdleMs = 1000;
+
+        @ConfigEntry.Gui.Tooltip
+        public boolean amalgamateAtWordBoundary = true;
+    }
+
+    public static class KillRing {
+        @ConfigEntry.Gui.Tooltip
+        public int ringSize = 60;
+
+        @ConfigEntry.Gui.Tooltip
+        public int maxKb = 1024;
+
+        @ConfigEntry.Gui.Tooltip
+        public boolean persistent = true;
+
+        @ConfigEntry.Gui.Tooltip
+        public boolean shared = false;
+    }
+
     public static class HistorySearch {
         @ConfigEntry.Gui.Tooltip
         public boolean enabled = true;
 
         @ConfigEntry.Gui.Tooltip
         public boolean caseSensitive = false;
+
+        @ConfigEntry.Gui.Tooltip
+        public boolean merged = true;
+
+        @ConfigEntry.Gui.Tooltip
+        public boolean persistent = true;
+
+        @ConfigEntry.Gui.Tooltip
+        public int maxEntries = 10000;
+
+        @ConfigEntry.Gui.Tooltip
+        public int receivedMaxEntries = 1000;
+
+        @ConfigEntry.Gui.Tooltip
+        public int inputMaxEntries = 1000;
     }
 
     public static class Options {
@@ -1,8 +1,11 @@
 package net.woadwizard.emacs;
 
+import net.woadwizard.KillRing;
 import net.woadwizard.config.Command;
 import net.woadwizard.config.ConfigHelper;
 import net.woadwizard.config.ModConfig;
+import net.woadwizard.killring.KillRingBrowser;
+import net.woadwizard.search.InputHistorySearch;
 import org.lwjgl.glfw.GLFW;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -33,6 +36,7 @@ public final class EmacsKeyHandler {
 
     /**
      * Handle a key press event.
+     * Any key that doesn't kill, handled here or not, ends the current run of kills.
      * @return Result indicating whether the key was handled
      */
     public static Result handleKeyPress(
@@ -42,10 +46,34 @@ public final class EmacsKeyHandler {
     ) {
         Objects.requireNonNull(field, "field must not be null");
 
+        int kills = KillRing.getKillCount();
+        Result result = dispatchKey(field, keyCode, modifiers);
+        // Modifiers pressed on their own are not commands, so C-k C-k with Ctrl pressed again still merges
+        if (KillRing.getKillCount() == kills && !isModifierKey(keyCode)) {
+            KillRing.endKillSequence();
+        }
+        return result;
+    }
+
+    private static boolean isModifierKey(int keyCode) {
+        return keyCode >= GLFW.GLFW_KEY_LEFT_SHIFT && keyCode <= GLFW.GLFW_KEY_RIGHT_SUPER;
+    }
+
+    private static Result dispatchKey(TextFieldAdapter field, int keyCode, int modifiers) {
         if (!ConfigHelper.isEnabled()) {
             return Result.NOT_HANDLED;
         }
 
+        // The kill ring browser takes all keys while it is open
+        if (KillRingBrowser.isOpen()) {
+            return KillRingBrowser.handleKey(keyCode, modifiers) ? Result.HANDLED : Result.NOT_HANDLED;
+        }
+
+        // History search and navigation in fields with an input history (command blocks, anvils, book titles, signs)
+        if (InputHistorySearch.handleKey(field, keyCode, modifiers)) {
+            return Result.HANDLED;
+        }
+
         WidgetState state = field.getState();
         boolean ctrlHeld = (modifiers & GLFW.GLFW_MOD_CONTROL) != 0;
         boolean altHeld = (modifiers & GLFW.GLFW_MOD_ALT) != 0;
@@ -105,6 +133,15 @@ public final class EmacsKeyHandler {
 
         // Try Alt commands
         if (altHeld && ConfigHelper.isAltEnabled()) {
+            // Special case: M-Y opens the kill ring browser (shift distinguishes from M-y yank-pop)
+            if (shiftHeld && keyCode == GLFW.GLFW_KEY_Y) {
+                if (Command.META_SHIFT_Y.isEnabled() && Command.META_SHIFT_Y.hasAction()) {
+                    LOGGER.trace("M-Y: opening kill ring browser");
+                    Command.Result cmdResult = Command.META_SHIFT_Y.execute(field, selecting);
+                    return toHandlerResult(cmdResult);
+                }
+            }
+
             Command cmd = Command.fromAltKey(keyCode);
             if (cmd != null && cmd.isEnabled() && cmd.hasAction()) {
                 LOGGER.trace("{}: executing", cmd.getName());
@@ -27,6 +27,13 @@ public interface TextFieldAdapter {
     void insertText(String text);
     void deleteChars(int count);  // positive = forward, negative = backward
 
+    // Replace [start, end) with text, leaving the rest of the buffer untouched
+    default void replaceRange(int start, int end, String text) {
+        setCursor(start);
+        setSelectionStart(end);
+        insertText(text);
+    }
+
     // Movement
     void moveChar(int direction, boolean selecting);
     void moveWord(int direction, boolean selecting);
@@ -23,13 +23,16 @@ public final class TextOperations {
     // ========== Kill Operations ==========
 
     /**
-     * Common helper for kill operations: records undo, adds to kill ring, executes delete action.
+     * Common helper for kill operations: records undo, executes delete action, adds to kill ring.
+     * Consecutive kills at the same spot are merged into one kill ring entry.
+     * @param direction positive for forward kills, negative for backward kills, zero for region kills
      */
-    private static void killText(TextFieldAdapter field, String killed, Runnable deleteAction) {
+    private static void killText(TextFieldAdapter field, String killed, int direction, Runnable deleteAction) {
         if (killed != null && !killed.isEmpty()) {
-            UndoManager.recordState(field.getWidget(), field.getState(), field.getText(), field.getCursor());
-            KillRing.kill(killed);
+            int cursorBefore = field.getCursor();
+            UndoManager.recordState(field.getWidget(), field.getState(), field.getText(), cursorBefore);
             deleteAction.run();
+            KillRing.kill(killed, field.getWidget(), cursorBefore, field.getCursor(), direction);
         }
         field.getState().deactivateMark();
     }
@@ -42,7 +45,7 @@ public final class TextOperations {
         int cursor = field.getCursor();
         int lineEnd = field.getLineEnd();
         String killed = cursor < lineEnd ? field.getText().substring(cursor, lineEnd) : null;
-        killText(field, killed, () -> field.deleteChars(lineEnd - cursor));
+        killText(field, killed, 1, () -> field.deleteChars(lineEnd - cursor));
         if (ConfigHelper.isEnabled()) {
             LOGGER.trace("C-k: killed {} chars", killed != null ? killed.length() : 0);
         }
@@ -56,7 +59,7 @@ public final class TextOperations {
         int cursor = field.getCursor();
         int lineStart = field.getLineStart();
         String killed = cursor > lineStart ? field.getText().substring(lineStart, cursor) : null;
-        killText(field, killed, () -> field.deleteChars(lineStart - cursor));
+        killText(field, killed, -1, () -> field.deleteChars(lineStart - cursor));
         if (ConfigHelper.isEnabled()) {
             LOGGER.trace("C-u: killed {} chars", killed != null ? killed.length() : 0);
         }
@@ -70,7 +73,7 @@ public final class TextOperations {
         Objects.requireNonNull(field, "field must not be null");
         if (field.hasSelection()) {
             String killed = field.getSelectedText();
-            killText(field, killed, () -> field.insertText(""));
+            killText(field, killed, 0, () -> field.insertText(""));
         } else if (ConfigHelper.isKillWordOnCw()) {
             killWordBackwardToWhitespace(field);
         } else {
@@ -102,7 +105,7 @@ public final class TextOperations {
 
         final int deleteOffset = pos - cursor;
         String killed = pos < cursor ? text.substring(pos, cursor) : null;
-        killText(field, killed, () -> field.deleteChars(deleteOffset));
+        killText(field, killed, -1, () -> field.deleteChars(deleteOffset));
     }
 
     /**
@@ -119,7 +122,7 @@ public final class TextOperations {
         }
         int start = direction > 0 ? cursor : cursor + offset;
         int end = direction > 0 ? cursor + offset : cursor;
-        killText(field, text.substring(start, end), () -> field.deleteChars(offset));
+        killText(field, text.substring(start, end), direction, () -> field.deleteChars(offset));
     }
 
     // ========== Copy/Yank Operations ==========
@@ -280,20 +283,36 @@ public final class TextOperations {
 
     /**
      * Perform undo operation (C-/).
+     * With an active region, only changes inside the region are undone and
+     * the region stays active so repeated presses keep undoing within it.
      */
     public static void performUndo(TextFieldAdapter field) {
         Objects.requireNonNull(field, "field must not be null");
-        String currentText = field.getText();
-        int currentCursor = field.getCursor();
         WidgetState widgetState = field.getState();
+        int cursor = field.getCursor();
+        int selectionStart = field.getSelectionStart();
+        if ((widgetState.isMarkActive() || field.hasSelection()) && cursor != selectionStart) {
+            undoInRegion(field, cursor, selectionStart);
+            return;
+        }
+        applyUndoState(field, UndoManager.undo(field.getWidget(), widgetState, field.getText(), cursor));
+    }
 
-        UndoManager.UndoState state = UndoManager.undo(field.getWidget(), widgetState, currentText, currentCursor);
-        if (state != null) {
-            field.setText(state.text);
-            field.setCursor(Math.min(state.cursorPos, state.text.length()));
-            field.collapseSelection();
+    private static void undoInRegion(TextFieldAdapter field, int cursor, int selectionStart) {
+        int start = Math.min(cursor, selectionStart);
+        int end = Math.max(cursor, selectionStart);
+        UndoManager.UndoState state = UndoManager.undoInRegion(
+            field.getWidget(), field.getState(), field.getText(), cursor, start, end);
+        if (state == null) {
+            LOGGER.trace("Undo in region: no changes inside {}..{}", start, end);
+            return;
         }
-        widgetState.deactivateMark();
+        replaceSpan(field, state);
+
+        // Keep the (resized) region selected with the cursor on the same side
+        int newEnd = end + state.replacement.length() - (state.spanEnd - state.spanStart);
+        field.setCursor(cursor < selectionStart ? start : newEnd);
+        field.setSelectionStart(cursor < selectionStart ? newEnd : start);
     }
 
     /**
@@ -301,17 +320,53 @@ public final class TextOperations {
      */
     public static void performRedo(TextFieldAdapter field) {
         Objects.requireNonNull(field, "field must not be null");
-        String currentText = field.getText();
-        int currentCursor = field.getCursor();
         WidgetState widgetState = field.getState();
+        applyUndoState(field, UndoManager.redo(field.getWidget(), widgetState, field.getText(), field.getCursor()));
+    }
+
+    /**
+     * Switch to the adjacent undo-tree branch (M-[ older, M-] newer).
+     */
+    public static void switchUndoBranch(TextFieldAdapter field, int direction) {
+        Objects.requireNonNull(field, "field must not be null");
+        WidgetState widgetState = field.getState();
+        applyUndoState(field, UndoManager.switchBranch(
+            field.getWidget(), widgetState, field.getText(), field.getCursor(), direction));
+    }
 
-        UndoManager.UndoState state = UndoManager.redo(field.getWidget(), widgetState, currentText, currentCursor);
+    /**
+     * Step through undo-tree states in the order they were created (M-- older, M-= newer).
+     */
+    public static void undoTimeTravel(TextFieldAdapter field, int direction) {
+        Objects.requireNonNull(field, "field must not be null");
+        WidgetState widgetState = field.getState();
+        applyUndoState(field, UndoManager.stepChronologically(
+            field.getWidget(), widgetState, field.getText(), field.getCursor(), direction));
+    }
+
+    /**
+     * Write a restored undo state back to the field.
+     */
+    private static void applyUndoState(TextFieldAdapter field, UndoManager.UndoState state) {
         if (state != null) {
-            field.setText(state.text);
+            replaceSpan(field, state);
             field.setCursor(Math.min(state.cursorPos, state.text.length()));
             field.collapseSelection();
         }
-        widgetState.deactivateMark();
+        field.getState().deactivateMark();
+    }
+
+    /**
+     * Rewrite only the span that changed. Falls back to replacing the whole
+     * text if the widget filtered the insertion (e.g. length limits).
+     */
+    private static void replaceSpan(TextFieldAdapter field, UndoManager.UndoState state) {
+        if (state.spanStart < state.spanEnd || !state.replacement.isEmpty()) {
+            field.replaceRange(state.spanStart, state.spanEnd, state.replacement);
+        }
+        if (!field.getText().equals(state.text)) {
+            field.setText(state.text);
+        }
     }
 
     // ========== Case Conversion Operations ==========
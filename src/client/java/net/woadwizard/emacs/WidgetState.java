@@ -1,5 +1,8 @@
 package net.woadwizard.emacs;
 
+import net.woadwizard.search.InputHistory;
+import net.woadwizard.undo.PagedDocument;
+
 /**
  * Per-widget Emacs state.
  * Each text field widget has its own instance of this class,
@@ -13,6 +16,9 @@ public class WidgetState {
     private long cxPrefixTimestamp = 0;
     private boolean undoing = false;
     private boolean redoing = false;
+    private String sessionKey = null;
+    private PagedDocument document = null;
+    private InputHistory.Category inputHistory = null;
 
     /**
      * Activate the mark at the current cursor position.
@@ -119,4 +125,47 @@ public class WidgetState {
     public void setRedoing(boolean redoing) {
         this.redoing = redoing;
     }
+
+    /**
+     * Get the stable key this widget's undo history is saved under, or null if unbound.
+     */
+    public String getSessionKey() {
+        return sessionKey;
+    }
+
+    /**
+     * Set the stable key used to save and restore this widget's undo history
+     * across screen instances.
+     */
+    public void setSessionKey(String sessionKey) {
+        this.sessionKey = sessionKey;
+    }
+
+    /**
+     * Get the multi-page document this widget edits, or null for a plain text field.
+     */
+    public PagedDocument getDocument() {
+        return document;
+    }
+
+    /**
+     * Set the multi-page document this widget edits, so undo history spans all of its pages.
+     */
+    public void setDocument(PagedDocument document) {
+        this.document = document;
+    }
+
+    /**
+     * Get the kind of input history this widget searches and navigates, or null for none.
+     */
+    public InputHistory.Category getInputHistory() {
+        return inputHistory;
+    }
+
+    /**
+     * Set the kind of input history this widget searches with C-r and navigates with C-p/C-n.
+     */
+    public void setInputHistory(InputHistory.Category inputHistory) {
+        this.inputHistory = inputHistory;
+    }
 }
@@ -0,0 +1,144 @@
+package net.woadwizard.killring;
+
+import net.woadwizard.KillRing;
+import net.minecraft.client.Minecraft;
+import net.minecraft.client.gui.components.EditBox;
+import net.minecraft.client.gui.components.MultiLineEditBox;
+import net.minecraft.client.gui.components.events.GuiEventListener;
+import net.minecraft.client.gui.font.TextFieldHelper;
+import net.minecraft.client.gui.screens.Screen;
+import net.minecraft.client.gui.screens.inventory.AbstractSignEditScreen;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Bridge between the kill ring and the system clipboard.
+ *
+ * Reading or writing the clipboard is a GLFW round-trip, so it is kept out
+ * of key handling entirely. Kills only queue the text; the clipboard is
+ * written at the end of a client tick once a burst of kills (repeated C-k
+ * or M-d) has settled, so the burst costs one write. The last known clipboard
+ * contents are cached for yanking, and text copied in other applications is
+ * pulled into the ring when the game window regains focus or periodically
+ * while a text field has focus. Whatever the clipboard held before the game
+ * first read it is only cached, never added to the ring. Text pulled in later
+ * is kept in memory only: KillRing never saves clipboard entries.
+ */
+public final class ClipboardBridge {
+    private static final Logger LOGGER = LoggerFactory.getLogger(ClipboardBridge.class);
+    // Quiet period after the last kill before the clipboard is written
+    private static final long WRITE_DEBOUNCE_MS = 150;
+    // How often to look for external clipboard changes while a text field has focus
+    private static final long POLL_INTERVAL_MS = 1000;
+
+    private static String pendingWrite = null;
+    private static long lastQueuedAt = 0;
+    private static String cachedClipboard = null;
+    // Whether the clipboard has been read or written yet; until then its contents predate the game
+    private static boolean seeded = false;
+    private static long lastPollAt = 0;
+    private static boolean wasWindowActive = false;
+
+    private ClipboardBridge() {}
+
+    /**
+     * Queue text to be copied to the system clipboard.
+     * Only the newest text of a burst is written.
+     */
+    public static void queueWrite(String text) {
+        pendingWrite = text;
+        lastQueuedAt = System.currentTimeMillis();
+    }
+
+    /**
+     * Last known clipboard contents: the newest text we queued or wrote, or
+     * what was last read from the system. Never touches GLFW.
+     * @return the cached text, or null if the clipboard has not been read yet
+     */
+    public static String getCachedClipboard() {
+        return pendingWrite != null ? pendingWrite : cachedClipboard;
+    }
+
+    /**
+     * Called at the end of every client tick, between frames.
+     */
+    public static void onTick(Minecraft minecraft) {
+        long now = System.currentTimeMillis();
+        if (pendingWrite != null) {
+            if (now - lastQueuedAt >= WRITE_DEBOUNCE_MS) {
+                flush(minecraft);
+            }
+            // Don't read back until our own write has landed
+            return;
+        }
+
+        boolean active = minecraft.isWindowActive();
+        boolean regainedFocus = active && !wasWindowActive;
+        wasWindowActive = active;
+        boolean pollDue = now - lastPollAt >= POLL_INTERVAL_MS && isTextFieldFocused(minecraft.screen);
+        if (regainedFocus || pollDue) {
+            lastPollAt = now;
+            pullExternalChange(minecraft);
+        }
+    }
+
+    /**
+     * Write any queued text to the clipboard now (e.g. when the game is closing).
+     */
+    public static void flush(Minecraft minecraft) {
+        String text = pendingWrite;
+        if (text == null) {
+            return;
+        }
+        pendingWrite = null;
+        try {
+            TextFieldHelper.setClipboardContents(minecraft, text);
+            cachedClipboard = text;
+            seeded = true;
+            LOGGER.debug("Wrote {} chars to clipboard", text.length());
+        } catch (Exception e) {
+            LOGGER.warn("Failed to copy to system clipboard", e);
+        }
+    }
+
+    /**
+     * Read the clipboard and add it to the kill ring if another application changed it.
+     */
+    private static void pullExternalChange(Minecraft minecraft) {
+        String clipboard;
+        try {
+            clipboard = TextFieldHelper.getClipboardContents(minecraft);
+        } catch (Exception e) {
+            LOGGER.warn("Failed to read from system clipboard", e);
+            return;
+        }
+        if (!seeded) {
+            // Already there at launch, and may be anything (such as a password): cache it only
+            seeded = true;
+            cachedClipboard = clipboard;
+            return;
+        }
+        if (clipboard == null || clipboard.isEmpty() || clipboard.equals(cachedClipboard)) {
+            return;
+        }
+        cachedClipboard = clipboard;
+        KillRing.addExternal(clipboard);
+        LOGGER.debug("Pulled {} chars from clipboard into kill ring", clipboard.length());
+    }
+
+    /**
+     * Check if text is being edited on a screen, so a yank could want the clipboard.
+     */
+    private static boolean isTextFieldFocused(Screen screen) {
+        if (screen == null) {
+            return false;
+        }
+        // Signs edit through a TextFieldHelper rather than a focused widget
+        if (screen instanceof AbstractSignEditScreen) {
+            return true;
+        }
+        GuiEventListener focused = screen.getFocused();
+        return (focused instanceof EditBox editBox && editBox.canConsumeInput())
+                || focused instanceof MultiLineEditBox;
+    }
+}
@@ -0,0 +1,171 @@
+package net.woadwizard.killring;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.zip.Deflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * A kill ring entry: killed text with where and when it was killed.
+ *
+ * Short texts are kept as plain strings. Long ones (a whole command block or
+ * book page) are kept as deflated UTF-8 and only inflated when read, so a few
+ * big kills don't pin tens of kilobytes each for as long as they stay in the
+ * ring. Compression is deterministic, so two entries are equal exactly when
+ * their stored forms are, without inflating either. Filtering looks only at
+ * the plain prefix of a compressed text (see searchText), so it never inflates.
+ */
+public final class KillEntry {
+    // Texts at least this long are stored compressed
+    public static final int COMPRESS_THRESHOLD = 2048;
+    // Start of a compressed text kept plain for display
+    private static final int PREFIX_LENGTH = 256;
+
+    private final String text;        // null when compressed
+    private final byte[] compressed;  // null when plain
+    private final String prefix;      // null when plain
+    private final int length;
+    private final int hash;
+    private final KillSource source;
+    private final long timestamp;
+
+    private KillEntry(String text, byte[] compressed, String prefix, int length, int hash,
+                      KillSource source, long timestamp) {
+        this.text = text;
+        this.compressed = compressed;
+        this.prefix = prefix;
+        this.length = length;
+        this.hash = hash;
+        this.source = source;
+        this.timestamp = timestamp;
+    }
+
+    /**
+     * Create an entry, compressing the text if it is long and compresses well.
+     * @param source the kind of widget the text was killed or copied in
+     * @param timestamp when the text was killed, in epoch milliseconds
+     */
+    public static KillEntry of(String text, KillSource source, long timestamp) {
+        Objects.requireNonNull(text, "text must not be null");
+        Objects.requireNonNull(source, "source must not be null");
+        if (text.length() >= COMPRESS_THRESHOLD) {
+            byte[] deflated = deflate(text.getBytes(StandardCharsets.UTF_8));
+            // Strings hold two bytes per char; only compress when it saves memory
+            if (deflated.length < 2L * text.length()) {
+                // Don't end the prefix on half of a surrogate pair
+                int prefixEnd = Character.isHighSurrogate(text.charAt(PREFIX_LENGTH - 1))
+                    ? PREFIX_LENGTH - 1 : PREFIX_LENGTH;
+                String prefix = text.substring(0, prefixEnd);
+                return new KillEntry(null, deflated, prefix, text.length(), text.hashCode(), source, timestamp);
+            }
+        }
+        return new KillEntry(text, null, null, text.length(), text.hashCode(), source, timestamp);
+    }
+
+    /**
+     * The killed text, inflated if it is stored compressed.
+     */
+    public String text() {
+        if (text != null) {
+            return text;
+        }
+        try (InputStream in = new InflaterInputStream(new ByteArrayInputStream(compressed))) {
+            return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Corrupt compressed kill ring entry", e);
+        }
+    }
+
+    /**
+     * The text the kill ring browser filters on, without inflating it:
+     * the whole text, or the plain prefix of a compressed one.
+     */
+    public String searchText() {
+        return text != null ? text : prefix;
+    }
+
+    /**
+     * The start of the text, for display, without inflating it.
+     * @param maxChars maximum length wanted; compressed entries give at most a few hundred chars
+     */
+    public String head(int maxChars) {
+        String start = text != null ? text : prefix;
+        return start.length() > maxChars ? start.substring(0, maxChars) : start;
+    }
+
+    public int length() {
+        return length;
+    }
+
+    public boolean isCompressed() {
+        return compressed != null;
+    }
+
+    /**
+     * Approximate memory held by the text, in bytes.
+     */
+    public long storedBytes() {
+        return compressed != null ? compressed.length + 2L * prefix.length() : 2L * length;
+    }
+
+    public KillSource source() {
+        return source;
+    }
+
+    public long timestamp() {
+        return timestamp;
+    }
+
+    /**
+     * Entries are equal when their texts are; source and timestamp are ignored.
+     */
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof KillEntry other) || hash != other.hash || length != other.length) {
+            return false;
+        }
+        if (text != null && other.text != null) {
+            return text.equals(other.text);
+        }
+        if (compressed != null && other.compressed != null) {
+            return Arrays.equals(compressed, other.compressed);
+        }
+        return false;
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
+    @Override
+    public String toString() {
+        return "KillEntry[" + source + ", " + length + " chars" + (isCompressed() ? ", compressed" : "") + "]";
+    }
+
+    private static byte[] deflate(byte[] input) {
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try {
+            deflater.setInput(input);
+            deflater.finish();
+            ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(64, input.length / 4));
+            byte[] buffer = new byte[8192];
+            while (!deflater.finished()) {
+                int count = deflater.deflate(buffer);
+                out.write(buffer, 0, count);
+            }
+            return out.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+}
@@ -0,0 +1,227 @@
+package net.woadwizard.killring;
+
+import net.woadwizard.KillRing;
+import net.woadwizard.emacs.TextFieldAdapter;
+import net.woadwizard.emacs.TextOperations;
+import net.minecraft.client.Minecraft;
+import net.minecraft.client.gui.Font;
+import net.minecraft.client.gui.GuiGraphics;
+import net.minecraft.client.gui.screens.Screen;
+import org.lwjgl.glfw.GLFW;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+
+/**
+ * Overlay for picking an old kill by typing part of it (M-Y).
+ *
+ * Typing narrows the list of kill ring entries (newest first) to those
+ * containing the query, ignoring case. Extending the query only re-checks the
+ * previous results, intersected with the trigram index once the query is long
+ * enough; otherwise the ring is filtered through the index.
+ * Enter yanks the selected entry into the field the browser was opened from,
+ * after which M-y cycles on from that entry.
+ *
+ * Keys: typing filters, Backspace edits the query, Up/Down (or C-p/C-n)
+ * move the selection, Enter yanks, Escape or C-g closes.
+ */
+public final class KillRingBrowser {
+    private static final Logger LOGGER = LoggerFactory.getLogger(KillRingBrowser.class);
+    private static final int VISIBLE_ROWS = 10;
+    private static final int PANEL_WIDTH = 320;
+    private static final int PADDING = 4;
+    private static final int BACKGROUND_COLOR = 0xE0101010;
+    private static final int SELECTED_COLOR = 0xFF404040;
+    private static final int TEXT_COLOR = 0xFFFFFFFF;
+    private static final int META_COLOR = 0xFFA0A0A0;
+
+    private static TextFieldAdapter target = null;
+    private static Screen screen = null;
+    private static final StringBuilder query = new StringBuilder();
+    private static String filteredQuery = "";
+    private static List<KillEntry> results = List.of();
+    private static int selected = 0;
+    private static int scroll = 0;
+
+    private KillRingBrowser() {}
+
+    /**
+     * Open the browser for yanking into the given field.
+     */
+    public static void open(TextFieldAdapter field) {
+        target = field;
+        screen = Minecraft.getInstance().screen;
+        query.setLength(0);
+        filteredQuery = "";
+        results = KillRing.filter("");
+        selected = 0;
+        scroll = 0;
+        LOGGER.debug("Opened kill ring browser with {} entries", results.size());
+    }
+
+    public static void close() {
+        target = null;
+        screen = null;
+        query.setLength(0);
+        results = List.of();
+    }
+
+    /**
+     * Check if the browser is open on the current screen.
+     * Closes it if the screen it was opened on is gone.
+     */
+    public static boolean isOpen() {
+        if (target != null && screen != Minecraft.getInstance().screen) {
+            close();
+        }
+        return target != null;
+    }
+
+    /**
+     * Handle a key press while the browser is open.
+     * @return true if the key was consumed
+     */
+    public static boolean handleKey(int keyCode, int modifiers) {
+        if (!isOpen()) {
+            return false;
+        }
+        boolean ctrlHeld = (modifiers & GLFW.GLFW_MOD_CONTROL) != 0;
+
+        switch (keyCode) {
+            case GLFW.GLFW_KEY_ESCAPE -> close();
+            case GLFW.GLFW_KEY_ENTER, GLFW.GLFW_KEY_KP_ENTER -> accept();
+            case GLFW.GLFW_KEY_UP -> moveSelection(-1);
+            case GLFW.GLFW_KEY_DOWN -> moveSelection(1);
+            case GLFW.GLFW_KEY_PAGE_UP -> moveSelection(-VISIBLE_ROWS);
+            case GLFW.GLFW_KEY_PAGE_DOWN -> moveSelection(VISIBLE_ROWS);
+            case GLFW.GLFW_KEY_BACKSPACE -> {
+                if (query.length() > 0) {
+                    query.setLength(query.offsetByCodePoints(query.length(), -1));
+                    refilter();
+                }
+            }
+            case GLFW.GLFW_KEY_G -> { if (ctrlHeld) close(); }
+            case GLFW.GLFW_KEY_P -> { if (ctrlHeld) moveSelection(-1); }
+            case GLFW.GLFW_KEY_N -> { if (ctrlHeld) moveSelection(1); }
+            default -> {
+                // Printable keys arrive through handleChar
+            }
+        }
+        // Swallow everything else so no edits reach the field underneath
+        return true;
+    }
+
+    /**
+     * Handle a typed character while the browser is open.
+     * @return true if the character was consumed
+     */
+    public static boolean handleChar(int codepoint, int modifiers) {
+        if (!isOpen()) {
+            return false;
+        }
+        // Characters from modified keys (such as the Y of M-Y) are not part of the query
+        if ((modifiers & (GLFW.GLFW_MOD_CONTROL | GLFW.GLFW_MOD_ALT)) == 0) {
+            query.appendCodePoint(codepoint);
+            refilter();
+        }
+        return true;
+    }
+
+    private static void refilter() {
+        String current = query.toString();
+        if (!filteredQuery.isEmpty() && current.startsWith(filteredQuery)) {
+            // Narrowing: only the previous results can still match
+            results = KillRing.narrow(results, current);
+        } else {
+            results = KillRing.filter(current);
+        }
+        filteredQuery = current;
+        selected = 0;
+        scroll = 0;
+    }
+
+    private static void moveSelection(int delta) {
+        if (results.isEmpty()) {
+            return;
+        }
+        selected = Math.max(0, Math.min(results.size() - 1, selected + delta));
+        if (selected < scroll) {
+            scroll = selected;
+        } else if (selected >= scroll + VISIBLE_ROWS) {
+            scroll = selected - VISIBLE_ROWS + 1;
+        }
+    }
+
+    private static void accept() {
+        TextFieldAdapter field = target;
+        KillEntry entry = results.isEmpty() ? null : results.get(selected);
+        close();
+        if (entry != null && KillRing.selectForYank(entry)) {
+            LOGGER.debug("Yanking {} chars from kill ring browser", entry.length());
+            TextOperations.yank(field);
+        }
+    }
+
+    // ========== Rendering ==========
+
+    /**
+     * Draw the browser over the current screen, if it is open.
+     */
+    public static void render(GuiGraphics graphics) {
+        if (!isOpen()) {
+            return;
+        }
+        Font font = Minecraft.getInstance().font;
+        int rowHeight = font.lineHeight + 2;
+        int width = Math.min(PANEL_WIDTH, graphics.guiWidth() - 2 * PADDING);
+        int rows = Math.min(VISIBLE_ROWS, results.size());
+        int height = (rows + 1) * rowHeight + 2 * PADDING;
+        int x = (graphics.guiWidth() - width) / 2;
+        int y = PADDING;
+        graphics.fill(x, y, x + width, y + height, BACKGROUND_COLOR);
+
+        int textX = x + PADDING;
+        int textWidth = width - 2 * PADDING;
+        int lineY = y + PADDING;
+        String header = "Kill ring (" + results.size() + "): " + query + "_";
+        graphics.drawString(font, font.plainSubstrByWidth(header, textWidth), textX, lineY, TEXT_COLOR, false);
+
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < rows; i++) {
+            int index = scroll + i;
+            KillEntry entry = results.get(index);
+            lineY += rowHeight;
+            if (index == selected) {
+                graphics.fill(x, lineY - 1, x + width, lineY + rowHeight - 1, SELECTED_COLOR);
+            }
+            String meta = entry.source().getLabel() + " " + formatAge(now - entry.timestamp()) + " " + entry.length() + "c ";
+            graphics.drawString(font, meta, textX, lineY, META_COLOR, false);
+            int metaWidth = font.width(meta);
+            String preview = font.plainSubstrByWidth(preview(entry), textWidth - metaWidth);
+            graphics.drawString(font, preview, textX + metaWidth, lineY, TEXT_COLOR, false);
+        }
+    }
+
+    /**
+     * First part of an entry on one line, with line breaks shown as spaces.
+     */
+    private static String preview(KillEntry entry) {
+        // Only what can fit on a row is ever drawn
+        return entry.head(PANEL_WIDTH).replace('\n', ' ');
+    }
+
+    private static String formatAge(long millis) {
+        long seconds = Math.max(0, millis / 1000);
+        if (seconds < 60) {
+            return seconds + "s";
+        }
+        if (seconds < 3600) {
+            return seconds / 60 + "m";
+        }
+        if (seconds < 86400) {
+            return seconds / 3600 + "h";
+        }
+        return seconds / 86400 + "d";
+    }
+}
@@ -0,0 +1,297 @@
+package net.woadwizard.killring;
+
+import net.woadwizard.KillRing;
+import net.fabricmc.loader.api.FabricLoader;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Append-only log that keeps the kill ring across game restarts.
+ *
+ * Every kill is appended as one record holding its source, timestamp and
+ * length-prefixed UTF-8 text; a kill merged into the newest entry is written
+ * as a record that replaces it. All file access
+ * happens on a single background thread, so killing text never waits for
+ * disk I/O. The log is read back in the background when the game starts, and once it grows
+ * well past the configured ring limits it is compacted down to the newest
+ * entries that still fit.
+ */
+public final class KillRingLog {
+    private static final Logger LOGGER = LoggerFactory.getLogger(KillRingLog.class);
+    private static final int FILE_MAGIC = 0x45494B52; // "EIKR"
+    private static final int FILE_VERSION = 3;
+    private static final int HEADER_BYTES = 8;
+    private static final int RECORD_OVERHEAD_BYTES = 14;
+    private static final byte RECORD_KILL = 0;
+    private static final byte RECORD_MERGE = 1;
+    // Compact once the log holds this many times the ring's limits
+    private static final int COMPACT_FACTOR = 2;
+
+    private static final ExecutorService IO = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "EmacsInput Kill Ring");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // Owned by the IO thread
+    private static DataOutputStream out;
+    private static int recordCount;
+    private static long recordBytes;
+    // Records appended since the game started; replay skips them since they are already in memory
+    private static int sessionRecords;
+
+    private KillRingLog() {}
+
+    /**
+     * Queue a kill to be appended to the log.
+     * @param merged true if the text replaces the newest entry rather than adding one
+     * @param maxEntries ring size limit, used to decide when to compact
+     * @param maxBytes ring byte limit, used to decide when to compact
+     */
+    public static void append(KillEntry entry, boolean merged, int maxEntries, long maxBytes) {
+        IO.execute(() -> {
+            try {
+                writeRecord(merged ? RECORD_MERGE : RECORD_KILL, entry);
+                if (recordCount > COMPACT_FACTOR * maxEntries || recordBytes > COMPACT_FACTOR * maxBytes) {
+                    compact(maxEntries, maxBytes);
+                }
+            } catch (IOException e) {
+                LOGGER.warn("Failed to append to kill ring log", e);
+                closeQuietly();
+            }
+        });
+    }
+
+    /**
+     * Start reading the kills saved by previous sessions in the background.
+     * Runs after any appends queued before it, so the result is consistent with the file.
+     * @return the saved kills, newest first
+     */
+    public static Future<List<KillEntry>> replay(int maxEntries, long maxBytes) {
+        return IO.submit(() -> {
+            // Skip this session's records; those kills are already in memory
+            List<KillEntry> entries = newestWithinLimits(readEntries(sessionRecords), maxEntries, maxBytes);
+            LOGGER.debug("Replayed {} kill ring entries", entries.size());
+            return entries;
+        });
+    }
+
+    private static Path getFile() {
+        return FabricLoader.getInstance().getConfigDir().resolve("emacsinput").resolve("kill-ring.log");
+    }
+
+    private static void writeRecord(byte type, KillEntry entry) throws IOException {
+        if (out == null) {
+            open();
+        }
+        int length = write(out, type, entry);
+        out.flush();
+        recordCount++;
+        recordBytes += RECORD_OVERHEAD_BYTES + length;
+        sessionRecords++;
+    }
+
+    /**
+     * Write one record.
+     * @return the length of the encoded text
+     */
+    private static int write(DataOutputStream to, byte type, KillEntry entry) throws IOException {
+        byte[] bytes = entry.text().getBytes(StandardCharsets.UTF_8);
+        to.writeByte(type);
+        to.writeByte(entry.source().ordinal());
+        to.writeLong(entry.timestamp());
+        to.writeInt(bytes.length);
+        to.write(bytes);
+        return bytes.length;
+    }
+
+    /**
+     * Open the log for appending, starting a new file if it is missing or unreadable.
+     */
+    private static void open() throws IOException {
+        Path file = getFile();
+        Files.createDirectories(file.getParent());
+        recordCount = 0;
+        recordBytes = 0;
+        if (Files.exists(file)) {
+            if (!scan(file)) {
+                LOGGER.warn("Replacing kill ring log with unknown format: {}", file);
+                Files.delete(file);
+            } else {
+                // Drop a partial record left by a crash, so new records start where it did
+                try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+                    long complete = HEADER_BYTES + recordBytes;
+                    if (channel.size() > complete) {
+                        LOGGER.info("Dropping {} bytes of a partial record from the kill ring log",
+                            channel.size() - complete);
+                        channel.truncate(complete);
+                    }
+                }
+            }
+        }
+        boolean fresh = !Files.exists(file);
+        out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file,
+            StandardOpenOption.CREATE, StandardOpenOption.APPEND)));
+        if (fresh) {
+            out.writeInt(FILE_MAGIC);
+            out.writeInt(FILE_VERSION);
+            out.flush();
+        }
+    }
+
+    /**
+     * Count the records in an existing log without decoding them.
+     * A truncated final record (from a crash mid-write) is not counted, so the
+     * complete records end at HEADER_BYTES + recordBytes.
+     * @return false if the file is not a kill ring log
+     */
+    private static boolean scan(Path file) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            if (!readHeader(in)) {
+                return false;
+            }
+            while (true) {
+                in.readByte();
+                in.readByte();
+                in.readLong();
+                int length = in.readInt();
+                in.skipNBytes(length);
+                recordCount++;
+                recordBytes += RECORD_OVERHEAD_BYTES + length;
+            }
+        } catch (EOFException e) {
+            return true;
+        }
+    }
+
+    private static boolean readHeader(DataInputStream in) throws IOException {
+        try {
+            return in.readInt() == FILE_MAGIC && in.readInt() == FILE_VERSION;
+        } catch (EOFException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Rebuild ring entries from the log, oldest first, applying merges.
+     * @param skipLast number of trailing records to ignore
+     */
+    private static List<KillEntry> readEntries(int skipLast) throws IOException {
+        List<Byte> types = new ArrayList<>();
+        List<KillEntry> records = new ArrayList<>();
+        Path file = getFile();
+        if (Files.exists(file)) {
+            try (InputStream raw = Files.newInputStream(file);
+                 DataInputStream in = new DataInputStream(new BufferedInputStream(raw))) {
+                if (readHeader(in)) {
+                    while (true) {
+                        byte type = in.readByte();
+                        KillSource source = KillSource.fromOrdinal(in.readByte());
+                        long timestamp = in.readLong();
+                        byte[] bytes = new byte[in.readInt()];
+                        in.readFully(bytes);
+                        types.add(type);
+                        records.add(KillEntry.of(new String(bytes, StandardCharsets.UTF_8), source, timestamp));
+                    }
+                }
+            } catch (EOFException e) {
+                // End of log, or a record cut short by a crash
+            }
+        }
+
+        List<KillEntry> entries = new ArrayList<>();
+        for (int i = 0; i < records.size() - skipLast; i++) {
+            if (types.get(i) == RECORD_MERGE && !entries.isEmpty()) {
+                entries.set(entries.size() - 1, records.get(i));
+            } else {
+                entries.add(records.get(i));
+            }
+        }
+        return entries;
+    }
+
+    /**
+     * Pick the newest distinct entries (given oldest first) that fit the ring limits.
+     * @return the kept entries, newest first
+     */
+    private static List<KillEntry> newestWithinLimits(List<KillEntry> entries, int maxEntries, long maxBytes) {
+        List<KillEntry> kept = new ArrayList<>();
+        Set<String> seen = new HashSet<>();
+        long bytes = 0;
+        for (int i = entries.size() - 1; i >= 0 && kept.size() < maxEntries; i--) {
+            KillEntry entry = entries.get(i);
+            if (!seen.add(entry.text())) {
+                continue;
+            }
+            bytes += entry.storedBytes();
+            if (bytes > maxBytes && !kept.isEmpty()) {
+                break;
+            }
+            kept.add(entry);
+        }
+        return kept;
+    }
+
+    /**
+     * Rewrite the log with only the newest entries that fit the ring limits.
+     * Written to a temporary file first so a crash never loses the old log.
+     */
+    private static void compact(int maxEntries, long maxBytes) throws IOException {
+        closeQuietly();
+        List<KillEntry> kept = newestWithinLimits(readEntries(0), maxEntries, maxBytes);
+        Deque<KillEntry> oldestFirst = new ArrayDeque<>();
+        kept.forEach(oldestFirst::push);
+
+        Path file = getFile();
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (OutputStream raw = Files.newOutputStream(temp);
+             DataOutputStream tempOut = new DataOutputStream(new BufferedOutputStream(raw))) {
+            tempOut.writeInt(FILE_MAGIC);
+            tempOut.writeInt(FILE_VERSION);
+            for (KillEntry entry : oldestFirst) {
+                write(tempOut, RECORD_KILL, entry);
+            }
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        // Merges are folded in, so this is only an estimate of how many kept
+        // entries came from this session; at worst replay skips a few old ones
+        sessionRecords = Math.min(sessionRecords, kept.size());
+        LOGGER.debug("Compacted kill ring log to {} entries", kept.size());
+        open();
+    }
+
+    private static void closeQuietly() {
+        if (out != null) {
+            try {
+                out.close();
+            } catch (IOException e) {
+                LOGGER.debug("Failed to close kill ring log", e);
+            }
+            out = null;
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package net.woadwizard.killring;
+
+import net.minecraft.client.Minecraft;
+import net.minecraft.client.gui.screens.ChatScreen;
+import net.minecraft.client.gui.screens.Screen;
+import net.minecraft.client.gui.screens.inventory.AbstractCommandBlockEditScreen;
+import net.minecraft.client.gui.screens.inventory.AbstractSignEditScreen;
+import net.minecraft.client.gui.screens.inventory.AnvilScreen;
+import net.minecraft.client.gui.screens.inventory.BookEditScreen;
+
+/**
+ * Kind of widget a kill ring entry came from, shown in the kill ring browser.
+ * Stored by ordinal in the kill ring log, so new values go at the end.
+ */
+public enum KillSource {
+    CHAT("Chat"),
+    SIGN("Sign"),
+    BOOK("Book"),
+    ANVIL("Anvil"),
+    COMMAND_BLOCK("Command"),
+    CLIPBOARD("Clipboard"),
+    OTHER("Other");
+
+    private final String label;
+
+    KillSource(String label) {
+        this.label = label;
+    }
+
+    public String getLabel() {
+        return label;
+    }
+
+    /**
+     * The source for text killed or copied on the current screen.
+     */
+    public static KillSource current() {
+        return of(Minecraft.getInstance().screen);
+    }
+
+    /**
+     * Classify a screen with instanceof checks, since class names are obfuscated at runtime.
+     */
+    public static KillSource of(Screen screen) {
+        if (screen instanceof ChatScreen) {
+            return CHAT;
+        }
+        if (screen instanceof AbstractSignEditScreen) {
+            return SIGN;
+        }
+        if (screen instanceof BookEditScreen) {
+            return BOOK;
+        }
+        if (screen instanceof AnvilScreen) {
+            return ANVIL;
+        }
+        if (screen instanceof AbstractCommandBlockEditScreen) {
+            return COMMAND_BLOCK;
+        }
+        return OTHER;
+    }
+
+    /**
+     * Look up a source by ordinal, as read from the kill ring log.
+     */
+    public static KillSource fromOrdinal(int ordinal) {
+        KillSource[] values = values();
+        return ordinal >= 0 && ordinal < values.length ? values[ordinal] : OTHER;
+    }
+}
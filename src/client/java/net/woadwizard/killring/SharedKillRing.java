@@ -0,0 +1,277 @@
+package net.woadwizard.killring;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Kill ring shared between game instances on one machine, through a
+ * memory-mapped file in the user's home directory.
+ *
+ * The file is a fixed ring of slots with a global sequence counter in its
+ * header. Publishing a kill writes the next slot and then advances the
+ * counter; other instances compare the counter with the last sequence they
+ * saw when they next yank, and copy any newer slots into their own ring.
+ *
+ * Nothing ever waits: writers take the file lock with tryLock and keep the
+ * kill for the next attempt if another instance holds it, and readers take
+ * no lock at all. Each slot carries its own sequence number, cleared while
+ * the slot is being written, so a reader that races a writer (or finds a
+ * slot left half-written by a crashed instance) skips it instead of reading
+ * torn text. Kills too long for a slot are not shared.
+ */
+public final class SharedKillRing {
+    private static final Logger LOGGER = LoggerFactory.getLogger(SharedKillRing.class);
+    private static final int FILE_MAGIC = 0x4549534B; // "EISK"
+    private static final int FILE_VERSION = 1;
+    private static final int SLOT_COUNT = 64;
+    private static final int SLOT_BYTES = 32 * 1024;
+    private static final int HEADER_BYTES = 16;
+    // Slot layout: seq, instance, timestamp, source, length, UTF-8 text
+    private static final int SLOT_HEADER_BYTES = 8 + 8 + 8 + 4 + 4;
+    private static final int MAX_TEXT_BYTES = SLOT_BYTES - SLOT_HEADER_BYTES;
+    private static final long FILE_BYTES = HEADER_BYTES + (long) SLOT_COUNT * SLOT_BYTES;
+    private static final int SEQUENCE_OFFSET = 8;
+    private static final int MAX_PENDING = 16;
+
+    // Ordered access to sequence numbers, which other processes read and write concurrently
+    private static final VarHandle LONGS = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.BIG_ENDIAN);
+
+    // Identifies this game instance, so it skips its own kills
+    private static final long INSTANCE_ID = ThreadLocalRandom.current().nextLong();
+
+    private static FileChannel channel;
+    private static MappedByteBuffer buffer;
+    private static boolean ready = false;
+    private static boolean failed = false;
+    private static long lastSeen = 0;
+    private static final Deque<KillEntry> pending = new ArrayDeque<>();
+
+    private SharedKillRing() {}
+
+    /**
+     * Publish a kill to the other instances.
+     * If another instance is writing, the kill is kept and retried with the next publish or poll.
+     */
+    public static void publish(KillEntry entry) {
+        if (failed) {
+            return;
+        }
+        pending.addLast(entry);
+        while (pending.size() > MAX_PENDING) {
+            pending.removeFirst();
+        }
+        if (ensureOpen()) {
+            flushPending();
+        }
+    }
+
+    /**
+     * Collect kills published by other instances since the last call.
+     * @return the new kills, oldest first
+     */
+    public static List<KillEntry> poll() {
+        if (!ensureOpen()) {
+            return List.of();
+        }
+        flushPending();
+        long published = (long) LONGS.getAcquire(buffer, SEQUENCE_OFFSET);
+        if (published <= lastSeen) {
+            // A smaller sequence means the file was reset; start over from there
+            lastSeen = published;
+            return List.of();
+        }
+        // Slots older than one lap of the ring have been overwritten
+        long from = Math.max(lastSeen + 1, published - SLOT_COUNT + 1);
+        List<KillEntry> entries = new ArrayList<>();
+        for (long seq = from; seq <= published; seq++) {
+            KillEntry entry = readSlot(seq);
+            if (entry != null) {
+                entries.add(entry);
+            }
+        }
+        lastSeen = published;
+        if (!entries.isEmpty()) {
+            LOGGER.debug("Picked up {} kills from other instances", entries.size());
+        }
+        return entries;
+    }
+
+    private static Path getFile() {
+        return Path.of(System.getProperty("user.home"), ".emacsinput", "shared-kill-ring.bin");
+    }
+
+    /**
+     * Map the shared file, creating it if needed.
+     * Gives up for the rest of the session if the file can't be used.
+     */
+    private static boolean ensureOpen() {
+        if (ready) {
+            return true;
+        }
+        if (failed) {
+            return false;
+        }
+        Path file = getFile();
+        try {
+            if (buffer == null) {
+                Files.createDirectories(file.getParent());
+                channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+                // Mapping past the end grows the file; every instance maps the same size
+                buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, FILE_BYTES);
+            }
+            if (!hasHeader() && !tryInitialize()) {
+                // Another instance holds the lock; retry on the next kill or yank
+                return false;
+            }
+        } catch (IOException | RuntimeException e) {
+            LOGGER.warn("Failed to open shared kill ring {}", file, e);
+            failed = true;
+            buffer = null;
+            closeQuietly();
+            return false;
+        }
+        // Only kills published from now on are picked up
+        lastSeen = (long) LONGS.getAcquire(buffer, SEQUENCE_OFFSET);
+        ready = true;
+        LOGGER.debug("Opened shared kill ring {} at sequence {}", file, lastSeen);
+        return true;
+    }
+
+    private static boolean hasHeader() {
+        return buffer.getInt(0) == FILE_MAGIC && buffer.getInt(4) == FILE_VERSION;
+    }
+
+    /**
+     * Write a fresh header, under the lock so two starting instances don't both reset it.
+     * @return false if another instance holds the lock
+     */
+    private static boolean tryInitialize() throws IOException {
+        FileLock lock = channel.tryLock();
+        if (lock == null) {
+            return false;
+        }
+        try (lock) {
+            if (!hasHeader()) {
+                for (int i = 0; i < SLOT_COUNT; i++) {
+                    LONGS.setRelease(buffer, slotOffset(i), 0L);
+                }
+                LONGS.setRelease(buffer, SEQUENCE_OFFSET, 0L);
+                buffer.putInt(0, FILE_MAGIC);
+                buffer.putInt(4, FILE_VERSION);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Write queued kills if the file lock is free right now.
+     */
+    private static void flushPending() {
+        if (pending.isEmpty()) {
+            return;
+        }
+        FileLock lock;
+        try {
+            lock = channel.tryLock();
+        } catch (IOException e) {
+            LOGGER.debug("Failed to lock shared kill ring", e);
+            return;
+        }
+        if (lock == null) {
+            // Another instance is writing; try again later
+            return;
+        }
+        try {
+            while (!pending.isEmpty()) {
+                writeSlot(pending.removeFirst());
+            }
+        } finally {
+            try {
+                lock.release();
+            } catch (IOException e) {
+                LOGGER.debug("Failed to unlock shared kill ring", e);
+            }
+        }
+    }
+
+    private static void writeSlot(KillEntry entry) {
+        byte[] bytes = entry.text().getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > MAX_TEXT_BYTES) {
+            LOGGER.debug("Not sharing {} byte kill; too long for a slot", bytes.length);
+            return;
+        }
+        long seq = (long) LONGS.getAcquire(buffer, SEQUENCE_OFFSET) + 1;
+        int offset = slotOffset(seq);
+        // Mark the slot as being written before touching its contents
+        LONGS.setVolatile(buffer, offset, 0L);
+        VarHandle.storeStoreFence();
+        buffer.putLong(offset + 8, INSTANCE_ID);
+        buffer.putLong(offset + 16, entry.timestamp());
+        buffer.putInt(offset + 24, entry.source().ordinal());
+        buffer.putInt(offset + 28, bytes.length);
+        buffer.put(offset + SLOT_HEADER_BYTES, bytes);
+        LONGS.setRelease(buffer, offset, seq);
+        LONGS.setRelease(buffer, SEQUENCE_OFFSET, seq);
+        // Our own kills are already in our ring
+        if (lastSeen == seq - 1) {
+            lastSeen = seq;
+        }
+    }
+
+    /**
+     * Read a slot if it still holds the given sequence and was written by another instance.
+     */
+    private static KillEntry readSlot(long seq) {
+        int offset = slotOffset(seq);
+        if ((long) LONGS.getAcquire(buffer, offset) != seq) {
+            return null;
+        }
+        long instance = buffer.getLong(offset + 8);
+        long timestamp = buffer.getLong(offset + 16);
+        int source = buffer.getInt(offset + 24);
+        int length = buffer.getInt(offset + 28);
+        if (length < 0 || length > MAX_TEXT_BYTES) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(offset + SLOT_HEADER_BYTES, bytes);
+        VarHandle.loadLoadFence();
+        // The slot was rewritten while we copied it
+        if ((long) LONGS.getAcquire(buffer, offset) != seq || instance == INSTANCE_ID) {
+            return null;
+        }
+        return KillEntry.of(new String(bytes, StandardCharsets.UTF_8), KillSource.fromOrdinal(source), timestamp);
+    }
+
+    private static int slotOffset(long seq) {
+        return HEADER_BYTES + (int) Math.floorMod(seq, SLOT_COUNT) * SLOT_BYTES;
+    }
+
+    private static void closeQuietly() {
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                LOGGER.debug("Failed to close shared kill ring", e);
+            }
+            channel = null;
+        }
+    }
+}
@@ -0,0 +1,45 @@
+package net.woadwizard.mixin.client;
+
+import net.woadwizard.emacs.adapters.AdapterCache;
+import net.woadwizard.search.InputHistory;
+import net.woadwizard.search.InputHistorySearch;
+import net.minecraft.client.gui.components.EditBox;
+import net.minecraft.client.gui.screens.inventory.AbstractCommandBlockEditScreen;
+import net.minecraft.client.input.KeyEvent;
+import org.lwjgl.glfw.GLFW;
+import org.spongepowered.asm.mixin.Mixin;
+import org.spongepowered.asm.mixin.Shadow;
+import org.spongepowered.asm.mixin.injection.At;
+import org.spongepowered.asm.mixin.injection.Inject;
+import org.spongepowered.asm.mixin.injection.callback.CallbackInfo;
+import org.spongepowered.asm.mixin.injection.callback.CallbackInfoReturnable;
+
+/**
+ * Command block and command block minecart editing: C-r/C-s and C-p/C-n
+ * over the commands entered in command blocks before, which are recorded
+ * when Done is pressed. Escape cancels a search rather than closing the screen.
+ */
+@Mixin(value = AbstractCommandBlockEditScreen.class, priority = 1100)
+public abstract class AbstractCommandBlockEditScreenMixin {
+
+    @Shadow
+    protected EditBox commandEdit;
+
+    @Inject(method = "init", at = @At("TAIL"))
+    private void onInit(CallbackInfo ci) {
+        InputHistorySearch.bind(AdapterCache.get(commandEdit), InputHistory.Category.COMMAND_BLOCK);
+    }
+
+    @Inject(method = "keyPressed", at = @At("HEAD"), cancellable = true)
+    private void onKeyPressed(KeyEvent event, CallbackInfoReturnable<Boolean> cir) {
+        // Screen closes on Escape before the command box sees it; cancel the search instead
+        if (event.key() == GLFW.GLFW_KEY_ESCAPE && InputHistorySearch.cancelIfSearching()) {
+            cir.setReturnValue(true);
+        }
+    }
+
+    @Inject(method = "onDone", at = @At("HEAD"))
+    private void onDone(CallbackInfo ci) {
+        InputHistory.record(InputHistory.Category.COMMAND_BLOCK, commandEdit.getValue());
+    }
+}
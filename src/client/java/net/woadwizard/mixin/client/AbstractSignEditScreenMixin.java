@@ -1,21 +1,30 @@
 package net.woadwizard.mixin.client;
 
+import net.woadwizard.KillRing;
 import net.woadwizard.UndoManager;
 import net.woadwizard.config.Command;
 import net.woadwizard.emacs.EmacsKeyHandler;
 import net.woadwizard.emacs.TextFieldAdapter;
 import net.woadwizard.emacs.adapters.AdapterCache;
+import net.woadwizard.killring.KillRingBrowser;
+import net.woadwizard.search.InputHistory;
+import net.woadwizard.search.InputHistorySearch;
+import net.woadwizard.undo.SessionKeys;
 import net.minecraft.client.gui.font.TextFieldHelper;
 import net.minecraft.client.gui.screens.inventory.AbstractSignEditScreen;
 import net.minecraft.client.input.CharacterEvent;
 import net.minecraft.client.input.KeyEvent;
+import net.minecraft.world.level.block.entity.SignBlockEntity;
 import org.lwjgl.glfw.GLFW;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.spongepowered.asm.mixin.Final;
 import org.spongepowered.asm.mixin.Mixin;
 import org.spongepowered.asm.mixin.Shadow;
+import org.spongepowered.asm.mixin.Unique;
 import org.spongepowered.asm.mixin.injection.At;
 import org.spongepowered.asm.mixin.injection.Inject;
+import org.spongepowered.asm.mixin.injection.callback.CallbackInfo;
 import org.spongepowered.asm.mixin.injection.callback.CallbackInfoReturnable;
 
 @Mixin(value = AbstractSignEditScreen.class, priority = 1100)
@@ -30,14 +39,62 @@ public abstract class AbstractSignEditScreenMixin {
     @Shadow
     private int line;
 
+    @Shadow
+    @Final
+    private SignBlockEntity sign;
+
+    @Shadow
+    @Final
+    private boolean isFrontText;
+
+    @Shadow
+    @Final
+    private String[] messages;
+
+    // Lines as they were when the screen opened; only changed lines go into the sign history
+    @Unique
+    private String[] originalMessages = new String[0];
+
+    @Inject(method = "init", at = @At("TAIL"))
+    private void onInit(CallbackInfo ci) {
+        TextFieldAdapter adapter = AdapterCache.get(signField);
+        UndoManager.bindSession(adapter, SessionKeys.sign(sign.getBlockPos(), isFrontText));
+        InputHistorySearch.bind(adapter, InputHistory.Category.SIGN);
+        if (originalMessages.length == 0) {
+            originalMessages = messages.clone();
+        }
+    }
+
+    @Inject(method = "removed", at = @At("HEAD"))
+    private void onRemoved(CallbackInfo ci) {
+        UndoManager.saveBoundSessions();
+        for (int i = 0; i < messages.length; i++) {
+            if (i >= originalMessages.length || !messages[i].equals(originalMessages[i])) {
+                InputHistory.record(InputHistory.Category.SIGN, messages[i]);
+            }
+        }
+    }
+
     @Inject(method = "keyPressed", at = @At("HEAD"), cancellable = true)
     private void onKeyPressed(KeyEvent event, CallbackInfoReturnable<Boolean> cir) {
+        // The kill ring browser takes all keys while it is open
+        if (KillRingBrowser.handleKey(event.key(), event.modifiers())) {
+            cir.setReturnValue(true);
+            return;
+        }
+
         int keyCode = event.key();
         int modifiers = event.modifiers();
         boolean ctrlHeld = (modifiers & GLFW.GLFW_MOD_CONTROL) != 0;
 
         TextFieldAdapter adapter = AdapterCache.get(signField);
 
+        // A history search takes C-p/C-n too, so it goes before line navigation
+        if (InputHistorySearch.handleKey(adapter, keyCode, modifiers)) {
+            cir.setReturnValue(true);
+            return;
+        }
+
         // Handle C-p/C-n specially for sign line navigation
         if (ctrlHeld) {
             if (keyCode == GLFW.GLFW_KEY_P && Command.CTRL_P.isEnabled()) {
@@ -45,6 +102,7 @@ public abstract class AbstractSignEditScreenMixin {
                 line = Math.floorMod(line - 1, SIGN_LINE_COUNT);
                 signField.setCursorToEnd();
                 adapter.getState().deactivateMark();
+                KillRing.endKillSequence();
                 cir.setReturnValue(true);
                 return;
             }
@@ -53,6 +111,7 @@ public abstract class AbstractSignEditScreenMixin {
                 line = (line + 1) % SIGN_LINE_COUNT;
                 signField.setCursorToEnd();
                 adapter.getState().deactivateMark();
+                KillRing.endKillSequence();
                 cir.setReturnValue(true);
                 return;
             }
@@ -75,6 +134,12 @@ public abstract class AbstractSignEditScreenMixin {
 
     @Inject(method = "charTyped", at = @At("HEAD"), cancellable = true)
     private void onCharTyped(CharacterEvent event, CallbackInfoReturnable<Boolean> cir) {
+        if (KillRingBrowser.handleChar(event.codepoint(), event.modifiers())
+                || InputHistorySearch.handleChar(event.codepoint(), event.modifiers())) {
+            cir.setReturnValue(true);
+            return;
+        }
+
         if (EmacsKeyHandler.shouldBlockChar(event.modifiers())) {
             LOGGER.debug("Blocking modified character: codepoint={}", event.codepoint());
             cir.setReturnValue(false);
@@ -84,6 +149,8 @@ public abstract class AbstractSignEditScreenMixin {
         // Record undo state before character is typed (amalgamated)
         TextFieldAdapter adapter = AdapterCache.get(signField);
         UndoManager.recordStateForInsert(adapter.getWidget(), adapter.getState(),
-            adapter.getText(), adapter.getCursor());
+            adapter.getText(), adapter.getCursor(), event.codepoint());
+        // Typing between kills keeps them apart
+        KillRing.endKillSequence();
     }
 }
@@ -0,0 +1,16 @@
+package net.woadwizard.mixin.client;
+
+import net.minecraft.client.gui.components.EditBox;
+import net.minecraft.client.gui.screens.inventory.AnvilScreen;
+import org.spongepowered.asm.mixin.Mixin;
+import org.spongepowered.asm.mixin.gen.Accessor;
+
+/**
+ * Accessor interface for AnvilScreen to get its name box.
+ */
+@Mixin(AnvilScreen.class)
+public interface AnvilScreenAccessor {
+
+    @Accessor("name")
+    EditBox getName();
+}
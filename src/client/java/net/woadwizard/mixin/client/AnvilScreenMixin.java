@@ -0,0 +1,40 @@
+package net.woadwizard.mixin.client;
+
+import net.woadwizard.emacs.adapters.AdapterCache;
+import net.woadwizard.search.InputHistory;
+import net.woadwizard.search.InputHistorySearch;
+import net.minecraft.client.gui.components.EditBox;
+import net.minecraft.client.gui.screens.inventory.AnvilScreen;
+import net.minecraft.client.input.KeyEvent;
+import org.lwjgl.glfw.GLFW;
+import org.spongepowered.asm.mixin.Mixin;
+import org.spongepowered.asm.mixin.Shadow;
+import org.spongepowered.asm.mixin.injection.At;
+import org.spongepowered.asm.mixin.injection.Inject;
+import org.spongepowered.asm.mixin.injection.callback.CallbackInfo;
+import org.spongepowered.asm.mixin.injection.callback.CallbackInfoReturnable;
+
+/**
+ * Anvil renaming: C-r/C-s and C-p/C-n over names given before, with Escape
+ * cancelling a search rather than closing the anvil.
+ * Names are recorded when the screen closes (see ItemCombinerScreenMixin).
+ */
+@Mixin(value = AnvilScreen.class, priority = 1100)
+public abstract class AnvilScreenMixin {
+
+    @Shadow
+    private EditBox name;
+
+    @Inject(method = "subInit", at = @At("TAIL"))
+    private void onSubInit(CallbackInfo ci) {
+        InputHistorySearch.bind(AdapterCache.get(name), InputHistory.Category.ANVIL);
+    }
+
+    @Inject(method = "keyPressed", at = @At("HEAD"), cancellable = true)
+    private void onKeyPressed(KeyEvent event, CallbackInfoReturnable<Boolean> cir) {
+        // The anvil closes on Escape before the name box sees it; cancel the search instead
+        if (event.key() == GLFW.GLFW_KEY_ESCAPE && InputHistorySearch.cancelIfSearching()) {
+            cir.setReturnValue(true);
+        }
+    }
+}
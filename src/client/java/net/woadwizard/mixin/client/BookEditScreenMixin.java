@@ -1,6 +1,12 @@
 package net.woadwizard.mixin.client;
 
 import net.woadwizard.SelectionHelper;
+import net.woadwizard.UndoManager;
+import net.woadwizard.emacs.TextFieldAdapter;
+import net.woadwizard.emacs.adapters.AdapterCache;
+import net.woadwizard.killring.KillRingBrowser;
+import net.woadwizard.undo.PagedDocument;
+import net.woadwizard.undo.SessionKeys;
 import net.minecraft.client.gui.components.MultiLineEditBox;
 import net.minecraft.client.gui.components.MultilineTextField;
 import net.minecraft.client.gui.screens.inventory.BookEditScreen;
@@ -13,10 +19,17 @@ import org.spongepowered.asm.mixin.Mixin;
 import org.spongepowered.asm.mixin.Shadow;
 import org.spongepowered.asm.mixin.injection.At;
 import org.spongepowered.asm.mixin.injection.Inject;
+import org.spongepowered.asm.mixin.injection.callback.CallbackInfo;
 import org.spongepowered.asm.mixin.injection.callback.CallbackInfoReturnable;
 
+import java.util.List;
+
+/**
+ * Book editing: the screen reuses one text field for every page, so it is
+ * exposed as a PagedDocument to give the whole book a single undo history.
+ */
 @Mixin(value = BookEditScreen.class, priority = 1100)
-public class BookEditScreenMixin {
+public abstract class BookEditScreenMixin implements PagedDocument {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(BookEditScreenMixin.class);
 
@@ -24,8 +37,83 @@ public class BookEditScreenMixin {
     @Final
     private MultiLineEditBox page;
 
+    @Shadow
+    @Final
+    private int slot;
+
+    @Shadow
+    private int currentPage;
+
+    @Shadow
+    @Final
+    private List<String> pages;
+
+    @Shadow
+    private void updatePageContent() {}
+
+    @Shadow
+    private void updateButtonVisibility() {}
+
+    @Inject(method = "init", at = @At("TAIL"))
+    private void onInit(CallbackInfo ci) {
+        MultilineTextField textField = ((MultiLineEditBoxAccessor) page).getTextField();
+        TextFieldAdapter adapter = AdapterCache.get(textField);
+        adapter.getState().setDocument(this);
+        UndoManager.bindSession(adapter, SessionKeys.book(slot));
+    }
+
+    /**
+     * Close the undo group on the page being left, so its edits are recorded
+     * under that page before the text field is loaded with the next one.
+     */
+    @Inject(method = {"pageBack", "pageForward"}, at = @At("HEAD"))
+    private void onPageTurn(CallbackInfo ci) {
+        MultilineTextField textField = ((MultiLineEditBoxAccessor) page).getTextField();
+        TextFieldAdapter adapter = AdapterCache.get(textField);
+        UndoManager.recordState(adapter.getWidget(), adapter.getState(), adapter.getText(), adapter.getCursor());
+    }
+
+    // ========== PagedDocument ==========
+
+    @Override
+    public int getCurrentPage() {
+        return currentPage;
+    }
+
+    @Override
+    public String getPageText(int index) {
+        return index < pages.size() ? pages.get(index) : "";
+    }
+
+    @Override
+    public void setPageText(int index, String text) {
+        ensurePage(index);
+        pages.set(index, text);
+    }
+
+    @Override
+    public void showPage(int index) {
+        ensurePage(index);
+        currentPage = index;
+        updatePageContent();
+        updateButtonVisibility();
+    }
+
+    // Pages trimmed when the book was last saved may still have undo history
+    private void ensurePage(int index) {
+        while (pages.size() <= index) {
+            pages.add("");
+        }
+    }
+
     @Inject(method = "keyPressed", at = @At("HEAD"), cancellable = true)
     private void onKeyPressed(KeyEvent event, CallbackInfoReturnable<Boolean> cir) {
+        // The kill ring browser takes all keys while it is open
+        if (KillRingBrowser.handleKey(event.key(), event.modifiers())) {
+            cir.setReturnValue(true);
+            return;
+        }
+
         // Handle Escape: clear selection first, then let native close screen
         if (event.key() == GLFW.GLFW_KEY_ESCAPE) {
             MultilineTextField textField = ((MultiLineEditBoxAccessor) page).getTextField();
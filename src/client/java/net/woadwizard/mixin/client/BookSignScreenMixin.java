@@ -0,0 +1,44 @@
+package net.woadwizard.mixin.client;
+
+import net.woadwizard.emacs.adapters.AdapterCache;
+import net.woadwizard.search.InputHistory;
+import net.woadwizard.search.InputHistorySearch;
+import net.minecraft.client.gui.components.EditBox;
+import net.minecraft.client.gui.screens.inventory.BookSignScreen;
+import net.minecraft.client.input.KeyEvent;
+import org.spongepowered.asm.mixin.Mixin;
+import org.spongepowered.asm.mixin.Shadow;
+import org.spongepowered.asm.mixin.injection.At;
+import org.spongepowered.asm.mixin.injection.Inject;
+import org.spongepowered.asm.mixin.injection.callback.CallbackInfo;
+import org.spongepowered.asm.mixin.injection.callback.CallbackInfoReturnable;
+
+/**
+ * Book signing: C-r/C-s and C-p/C-n over titles given to books before,
+ * which are recorded when the book is signed.
+ */
+@Mixin(value = BookSignScreen.class, priority = 1100)
+public abstract class BookSignScreenMixin {
+
+    @Shadow
+    private EditBox titleBox;
+
+    @Inject(method = "init", at = @At("TAIL"))
+    private void onInit(CallbackInfo ci) {
+        InputHistorySearch.bind(AdapterCache.get(titleBox), InputHistory.Category.BOOK_TITLE);
+    }
+
+    @Inject(method = "keyPressed", at = @At("HEAD"), cancellable = true)
+    private void onKeyPressed(KeyEvent event, CallbackInfoReturnable<Boolean> cir) {
+        // The screen acts on Enter (signing) and Escape before the title box sees them
+        if (InputHistorySearch.isSearching()
+                && InputHistorySearch.handleKey(AdapterCache.get(titleBox), event.key(), event.modifiers())) {
+            cir.setReturnValue(true);
+        }
+    }
+
+    @Inject(method = "saveChanges", at = @At("HEAD"))
+    private void onSaveChanges(CallbackInfo ci) {
+        InputHistory.record(InputHistory.Category.BOOK_TITLE, titleBox.getValue().trim());
+    }
+}
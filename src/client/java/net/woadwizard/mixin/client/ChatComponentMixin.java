@@ -0,0 +1,36 @@
+package net.woadwizard.mixin.client;
+
+import net.woadwizard.search.HistoryIndex;
+import net.woadwizard.search.ReceivedChatLog;
+import net.minecraft.client.GuiMessageTag;
+import net.minecraft.client.gui.components.ChatComponent;
+import net.minecraft.network.chat.Component;
+import net.minecraft.network.chat.MessageSignature;
+import org.spongepowered.asm.mixin.Mixin;
+import org.spongepowered.asm.mixin.injection.At;
+import org.spongepowered.asm.mixin.injection.Inject;
+import org.spongepowered.asm.mixin.injection.callback.CallbackInfo;
+
+/**
+ * Keeps the chat history index up to date, and saves messages as they are sent.
+ * Also indexes messages shown in the chat window for M-R, as they arrive.
+ */
+@Mixin(value = ChatComponent.class, priority = 1100)
+public class ChatComponentMixin {
+
+    @Inject(method = "addRecentChat", at = @At("TAIL"))
+    private void onAddRecentChat(String message, CallbackInfo ci) {
+        HistoryIndex.onChatSent(message, ((ChatComponent) (Object) this).getRecentChat());
+    }
+
+    @Inject(method = "addMessage(Lnet/minecraft/network/chat/Component;Lnet/minecraft/network/chat/MessageSignature;Lnet/minecraft/client/GuiMessageTag;)V",
+            at = @At("HEAD"))
+    private void onAddMessage(Component message, MessageSignature signature, GuiMessageTag tag, CallbackInfo ci) {
+        ReceivedChatLog.onMessage(message);
+    }
+
+    @Inject(method = "clearMessages", at = @At("HEAD"))
+    private void onClearMessages(boolean clearSentMsgHistory, CallbackInfo ci) {
+        ReceivedChatLog.clear();
+    }
+}
@@ -1,13 +1,23 @@
 package net.woadwizard.mixin.client;
 
+import net.woadwizard.KillRing;
 import net.woadwizard.SelectionHelper;
+import net.woadwizard.UndoManager;
+import net.woadwizard.emacs.adapters.AdapterCache;
+import net.woadwizard.killring.KillRingBrowser;
+import net.woadwizard.search.HistoryIndex;
 import net.woadwizard.search.HistorySearch;
+import net.woadwizard.search.ReceivedChatLog;
 import net.woadwizard.search.SearchController;
 import net.woadwizard.search.SearchFormatter;
 import net.woadwizard.search.SearchModeHandler;
+import net.woadwizard.search.SearchResultsOverlay;
+import net.woadwizard.search.SearchableHistory;
 import net.woadwizard.search.SearchState;
 import net.woadwizard.config.Command;
 import net.woadwizard.config.ConfigHelper;
+import net.woadwizard.emacs.TextFieldAdapter;
+import net.woadwizard.undo.SessionKeys;
 import net.minecraft.client.Minecraft;
 import net.minecraft.client.gui.GuiGraphics;
 import net.minecraft.client.gui.components.CommandSuggestions;
@@ -35,6 +45,27 @@ public abstract class ChatScreenMixin {
     @Unique
     private final HistorySearch historySearch = new HistorySearch();
 
+    @Unique
+    private final SearchResultsOverlay resultsOverlay = new SearchResultsOverlay();
+
+    // Indicator text for indicatorVersion of the search state
+    @Unique
+    private String indicator = "";
+
+    @Unique
+    private int indicatorVersion = -1;
+
+    // Size of the history being searched, for mapping matches back to historyPos
+    @Unique
+    private int searchedHistorySize = 0;
+
+    // Searching received messages (M-R) rather than sent history, and where to insert the match
+    @Unique
+    private boolean searchingReceived = false;
+
+    @Unique
+    private int receivedInsertPos = 0;
+
     @Shadow
     CommandSuggestions commandSuggestions;
 
@@ -50,21 +81,66 @@ public abstract class ChatScreenMixin {
     @Inject(method = "init", at = @At("TAIL"))
     private void onInit(CallbackInfo ci) {
         HistorySearch.setCurrent(historySearch);
+        HistoryIndex.prefetch();
+        // init runs again on resize with a new EditBox; carry the history over
+        UndoManager.saveBoundSessions();
+        UndoManager.bindSession(AdapterCache.get(input), SessionKeys.chat());
     }
 
     @Inject(method = "removed", at = @At("HEAD"))
     private void onRemoved(CallbackInfo ci) {
         historySearch.exit();
+        endReceivedSearchIfExited();
         HistorySearch.setCurrent(null);
+        UndoManager.saveBoundSessions();
+    }
+
+    /**
+     * Stepping through history replaces the input, so kills before and after are kept apart.
+     */
+    @Inject(method = "moveInHistory", at = @At("HEAD"))
+    private void onMoveInHistory(int direction, CallbackInfo ci) {
+        KillRing.endKillSequence();
     }
 
     @Inject(method = "keyPressed", at = @At("HEAD"), cancellable = true)
     private void onKeyPressed(KeyEvent event, CallbackInfoReturnable<Boolean> cir) {
+        // The kill ring browser takes all keys while it is open
+        if (KillRingBrowser.handleKey(event.key(), event.modifiers())) {
+            cir.setReturnValue(true);
+            return;
+        }
+
         int keyCode = event.key();
         int modifiers = event.modifiers();
         boolean ctrlHeld = (modifiers & GLFW.GLFW_MOD_CONTROL) != 0;
         boolean altHeld = (modifiers & GLFW.GLFW_MOD_ALT) != 0;
 
+        // A search between kills keeps them apart, even if the kills land at the same spot
+        if (historySearch.isActive()) {
+            KillRing.endKillSequence();
+        }
+
+        // Received message search: matches go into the input or the kill ring, not replace it
+        if (historySearch.isActive() && searchingReceived) {
+            if (altHeld && !ctrlHeld && keyCode == GLFW.GLFW_KEY_W) {
+                LOGGER.debug("M-w: copying received message to kill ring");
+                copyReceivedMatch();
+                cir.setReturnValue(true);
+                return;
+            }
+            if (SearchModeHandler.isAcceptKey(keyCode, ctrlHeld, altHeld)) {
+                LOGGER.debug("Inserting received message into input");
+                insertReceivedMatch();
+                // Tab, C-j and Enter only insert (Enter doesn't send); other keys then act on the input
+                if (keyCode == GLFW.GLFW_KEY_TAB || keyCode == GLFW.GLFW_KEY_ENTER
+                        || keyCode == GLFW.GLFW_KEY_KP_ENTER || keyCode == GLFW.GLFW_KEY_J) {
+                    cir.setReturnValue(true);
+                    return;
+                }
+            }
+        }
+
         // Handle search mode keys
         if (historySearch.isActive()) {
             SearchModeHandler.Result result = SearchModeHandler.handleKey(
@@ -73,18 +149,29 @@ public abstract class ChatScreenMixin {
             if (result == SearchModeHandler.Result.HANDLED) {
                 // Update historyPos if search accepted
                 if (SearchModeHandler.isAcceptKey(keyCode, ctrlHeld, altHeld)) {
-                    historyPos = historySearch.getState().historyIndex();
+                    historyPos = toHistoryPos(historySearch.getState().historyIndex());
                 }
+                endReceivedSearchIfExited();
                 restoreCommandSuggestions();
                 cir.setReturnValue(true);
                 return;
             } else if (result == SearchModeHandler.Result.ACCEPT_AND_CONTINUE) {
-                historyPos = historySearch.getState().historyIndex();
+                historyPos = toHistoryPos(historySearch.getState().historyIndex());
                 restoreCommandSuggestions();
                 // Don't consume - let default handling proceed
             }
         }
 
+        // M-R: search received messages
+        boolean shiftHeld = (modifiers & GLFW.GLFW_MOD_SHIFT) != 0;
+        if (altHeld && shiftHeld && !ctrlHeld && keyCode == GLFW.GLFW_KEY_R
+                && !historySearch.isActive() && Command.META_SHIFT_R.isEnabled()) {
+            LOGGER.debug("M-R: entering received message search");
+            enterReceivedSearch();
+            cir.setReturnValue(true);
+            return;
+        }
+
         // Handle Ctrl keys for history/search navigation
         if (ctrlHeld) {
             Boolean result = handleCtrlKey(event, keyCode, modifiers);
@@ -165,6 +252,14 @@ public abstract class ChatScreenMixin {
         return null;
     }
 
+    @Inject(method = "render", at = @At("HEAD"))
+    private void onRenderHead(GuiGraphics graphics, int mouseX, int mouseY, float partialTick, CallbackInfo ci) {
+        // Show matches from a background search as they come in
+        if (historySearch.isActive() && historySearch.applyBackgroundResults()) {
+            SearchController.syncToEditBox(input, historySearch.getState());
+        }
+    }
+
     @Inject(method = "render", at = @At("TAIL"))
     private void onRender(GuiGraphics graphics, int mouseX, int mouseY, float partialTick, CallbackInfo ci) {
         if (!historySearch.isActive()) {
@@ -172,20 +267,25 @@ public abstract class ChatScreenMixin {
         }
 
         SearchState state = historySearch.getState();
-        String indicator = buildIndicator(state);
+        if (state.version() != indicatorVersion) {
+            indicator = buildIndicator(state);
+            indicatorVersion = state.version();
+        }
 
         var font = Minecraft.getInstance().font;
         int x = input.getX();
         int y = input.getY() - font.lineHeight - 2;
 
+        resultsOverlay.render(graphics, historySearch, x - 2, y - 2, input.getWidth() + 4);
         graphics.drawString(font, indicator, x, y, 0xFFFFFFFF, true);
     }
 
     @Unique
     private String buildIndicator(SearchState state) {
-        String type = (state.hasMatches() || state.query().isEmpty())
-                ? "bck-i-search"
-                : "failing bck-i-search";
+        String prefix = (searchingReceived ? "received " : "") + state.mode().getIndicatorPrefix();
+        String type = (state.hasMatches() || state.searching() || state.query().isEmpty())
+                ? prefix + "bck-i-search"
+                : "failing " + prefix + "bck-i-search";
         return type + ": " + state.query();
     }
 
@@ -193,14 +293,74 @@ public abstract class ChatScreenMixin {
     private void enterSearchMode() {
         addSearchFormatterIfNeeded();
         input.setSuggestion(null);
-        historySearch.enter(input.getValue(), getSearchHistory(input.getValue()));
+        SearchableHistory history = getSearchHistory(input.getValue());
+        searchedHistorySize = history.view().size();
+        historySearch.enter(input.getValue(), history);
         SearchController.syncToEditBox(input, historySearch.getState());
     }
 
+    @Unique
+    private void enterReceivedSearch() {
+        addSearchFormatterIfNeeded();
+        input.setSuggestion(null);
+        receivedInsertPos = input.getCursorPosition();
+        searchingReceived = true;
+        historySearch.enter(input.getValue(), ReceivedChatLog.hold());
+        SearchController.syncToEditBox(input, historySearch.getState());
+    }
+
+    /**
+     * Put the input back as it was before M-R and insert the selected message at the cursor.
+     */
+    @Unique
+    private void insertReceivedMatch() {
+        HistorySearch.Match match = historySearch.getState().selectedMatch();
+        SearchController.cancelAndExit(input, historySearch);
+        endReceivedSearchIfExited();
+        if (match != null) {
+            input.moveCursorTo(receivedInsertPos, false);
+            TextFieldAdapter adapter = AdapterCache.get(input);
+            UndoManager.recordState(adapter.getWidget(), adapter.getState(), adapter.getText(), adapter.getCursor());
+            input.insertText(match.text());
+        }
+        restoreCommandSuggestions();
+    }
+
+    /**
+     * Put the input back as it was before M-R and add the selected message to the kill ring.
+     */
+    @Unique
+    private void copyReceivedMatch() {
+        HistorySearch.Match match = historySearch.getState().selectedMatch();
+        SearchController.cancelAndExit(input, historySearch);
+        endReceivedSearchIfExited();
+        if (match != null) {
+            KillRing.kill(match.text());
+        }
+        restoreCommandSuggestions();
+    }
+
+    /**
+     * Let messages received during an M-R search into the log once it is over.
+     */
+    @Unique
+    private void endReceivedSearchIfExited() {
+        if (searchingReceived && !historySearch.isActive()) {
+            searchingReceived = false;
+            ReceivedChatLog.release();
+        }
+    }
+
     @Unique
     private void exitSearchIfActive() {
+        if (historySearch.isActive() && searchingReceived) {
+            SearchController.cancelAndExit(input, historySearch);
+            endReceivedSearchIfExited();
+            restoreCommandSuggestions();
+            return;
+        }
         if (historySearch.isActive()) {
-            historyPos = SearchController.acceptAndExit(input, historySearch);
+            historyPos = toHistoryPos(SearchController.acceptAndExit(input, historySearch));
             restoreCommandSuggestions();
         }
     }
@@ -221,12 +381,27 @@ public abstract class ChatScreenMixin {
         }
     }
 
+    /**
+     * Map an index in the searched history to a position in vanilla's recent chat,
+     * counting from the newest entry (the saved history can be much longer).
+     */
     @Unique
-    private List<String> getSearchHistory(String currentInput) {
+    private int toHistoryPos(int searchIndex) {
+        if (searchIndex < 0) {
+            return searchIndex;
+        }
+        int recentSize = Minecraft.getInstance().gui.getChat().getRecentChat().size();
+        return Math.max(0, recentSize - (searchedHistorySize - searchIndex));
+    }
+
+    @Unique
+    private SearchableHistory getSearchHistory(String currentInput) {
+        if (ConfigHelper.isHistoryMerged()) {
+            return HistoryIndex.merged();
+        }
         if (currentInput.startsWith("/")) {
-            java.util.Collection<String> commands = Minecraft.getInstance().commandHistory().history();
-            return commands instanceof List<String> list ? list : new java.util.ArrayList<>(commands);
+            return HistoryIndex.commands();
         }
-        return Minecraft.getInstance().gui.getChat().getRecentChat();
+        return HistoryIndex.chat();
     }
 }
@@ -0,0 +1,20 @@
+package net.woadwizard.mixin.client;
+
+import net.woadwizard.search.HistoryIndex;
+import net.minecraft.client.CommandHistory;
+import org.spongepowered.asm.mixin.Mixin;
+import org.spongepowered.asm.mixin.injection.At;
+import org.spongepowered.asm.mixin.injection.Inject;
+import org.spongepowered.asm.mixin.injection.callback.CallbackInfo;
+
+/**
+ * Keeps the command history index up to date, and saves commands as they are sent.
+ */
+@Mixin(value = CommandHistory.class, priority = 1100)
+public class CommandHistoryMixin {
+
+    @Inject(method = "addCommand", at = @At("TAIL"))
+    private void onAddCommand(String command, CallbackInfo ci) {
+        HistoryIndex.onCommandAdded(command, ((CommandHistory) (Object) this).history());
+    }
+}
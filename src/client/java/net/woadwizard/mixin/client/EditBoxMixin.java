@@ -1,11 +1,14 @@
 package net.woadwizard.mixin.client;
 
+import net.woadwizard.KillRing;
 import net.woadwizard.UndoManager;
 import net.woadwizard.search.HistorySearch;
+import net.woadwizard.search.InputHistorySearch;
 import net.woadwizard.search.SearchController;
 import net.woadwizard.emacs.EmacsKeyHandler;
 import net.woadwizard.emacs.TextFieldAdapter;
 import net.woadwizard.emacs.adapters.AdapterCache;
+import net.woadwizard.killring.KillRingBrowser;
 import net.minecraft.client.Minecraft;
 import net.minecraft.client.gui.components.EditBox;
 import net.minecraft.client.gui.screens.ChatScreen;
@@ -47,15 +50,24 @@ public abstract class EditBoxMixin {
 
     @Inject(method = "charTyped", at = @At("HEAD"), cancellable = true)
     private void onCharTyped(CharacterEvent event, CallbackInfoReturnable<Boolean> cir) {
+        if (KillRingBrowser.handleChar(event.codepoint(), event.modifiers())
+                || InputHistorySearch.handleChar(event.codepoint(), event.modifiers())) {
+            cir.setReturnValue(true);
+            return;
+        }
+
         // Handle search mode character input (only on ChatScreen)
         HistorySearch current = HistorySearch.getCurrent();
         if (current != null && current.isActive() && Minecraft.getInstance().screen instanceof ChatScreen) {
             char c = (char) event.codepoint();
             LOGGER.debug("Search mode charTyped: '{}'", c);
 
-            EditBox self = (EditBox)(Object)this;
-            current.appendToQuery(c);
-            SearchController.syncToEditBox(self, current.getState());
+            // Characters from modified keys (such as the z of M-z) are not part of the query
+            if (!EmacsKeyHandler.shouldBlockChar(event.modifiers())) {
+                EditBox self = (EditBox)(Object)this;
+                current.appendToQuery(c);
+                SearchController.syncToEditBox(self, current.getState());
+            }
 
             cir.setReturnValue(true);
             return;
@@ -72,7 +84,9 @@ public abstract class EditBoxMixin {
         EditBox self = (EditBox)(Object)this;
         TextFieldAdapter adapter = AdapterCache.get(self);
         UndoManager.recordStateForInsert(adapter.getWidget(), adapter.getState(),
-            adapter.getText(), adapter.getCursor());
+            adapter.getText(), adapter.getCursor(), event.codepoint());
+        // Typing between kills keeps them apart
+        KillRing.endKillSequence();
     }
 
     /**
@@ -0,0 +1,36 @@
+package net.woadwizard.mixin.client;
+
+import net.woadwizard.search.InputHistory;
+import net.woadwizard.search.InputHistorySearch;
+import net.minecraft.client.gui.screens.inventory.AnvilScreen;
+import net.minecraft.client.gui.screens.inventory.ItemCombinerScreen;
+import net.minecraft.world.item.ItemStack;
+import org.spongepowered.asm.mixin.Mixin;
+import org.spongepowered.asm.mixin.injection.At;
+import org.spongepowered.asm.mixin.injection.Inject;
+import org.spongepowered.asm.mixin.injection.callback.CallbackInfo;
+
+/**
+ * Records the name typed in an anvil when it closes, if it renames the item.
+ * AnvilScreen doesn't override removed, so this hooks its superclass.
+ */
+@Mixin(value = ItemCombinerScreen.class, priority = 1100)
+public abstract class ItemCombinerScreenMixin {
+
+    @Inject(method = "removed", at = @At("HEAD"))
+    private void onRemoved(CallbackInfo ci) {
+        if (!((Object) this instanceof AnvilScreen anvil)) {
+            return;
+        }
+        // Closed mid-search: the box shows a match, not a name that was chosen
+        if (InputHistorySearch.cancelIfSearching()) {
+            return;
+        }
+        String name = ((AnvilScreenAccessor) anvil).getName().getValue();
+        ItemStack input = anvil.getMenu().getSlot(0).getItem();
+        // The box shows the item's own name until it is changed
+        if (!input.isEmpty() && !name.equals(input.getHoverName().getString())) {
+            InputHistory.record(InputHistory.Category.ANVIL, name);
+        }
+    }
+}
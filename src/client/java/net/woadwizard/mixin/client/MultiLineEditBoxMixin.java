@@ -1,9 +1,11 @@
 package net.woadwizard.mixin.client;
 
+import net.woadwizard.KillRing;
 import net.woadwizard.UndoManager;
 import net.woadwizard.emacs.EmacsKeyHandler;
 import net.woadwizard.emacs.TextFieldAdapter;
 import net.woadwizard.emacs.adapters.AdapterCache;
+import net.woadwizard.killring.KillRingBrowser;
 import net.minecraft.client.gui.components.MultiLineEditBox;
 import net.minecraft.client.gui.components.MultilineTextField;
 import net.minecraft.client.input.CharacterEvent;
@@ -47,6 +49,11 @@ public abstract class MultiLineEditBoxMixin {
 
     @Inject(method = "charTyped", at = @At("HEAD"), cancellable = true)
     private void onCharTyped(CharacterEvent event, CallbackInfoReturnable<Boolean> cir) {
+        if (KillRingBrowser.handleChar(event.codepoint(), event.modifiers())) {
+            cir.setReturnValue(true);
+            return;
+        }
+
         if (EmacsKeyHandler.shouldBlockChar(event.modifiers())) {
             LOGGER.debug("Blocking modified character: codepoint={}", event.codepoint());
             cir.setReturnValue(false);
@@ -56,6 +63,8 @@ public abstract class MultiLineEditBoxMixin {
         // Record undo state before character is typed (amalgamated)
         TextFieldAdapter adapter = AdapterCache.get(textField);
         UndoManager.recordStateForInsert(adapter.getWidget(), adapter.getState(),
-            adapter.getText(), adapter.getCursor());
+            adapter.getText(), adapter.getCursor(), event.codepoint());
+        // Typing between kills keeps them apart
+        KillRing.endKillSequence();
     }
 }
@@ -1,6 +1,10 @@
 package net.woadwizard.mixin.client;
 
 import net.woadwizard.KillRing;
+import net.woadwizard.UndoManager;
+import net.woadwizard.killring.KillRingBrowser;
+import net.woadwizard.search.InputHistorySearch;
+import net.minecraft.client.gui.GuiGraphics;
 import net.minecraft.client.gui.screens.Screen;
 import org.spongepowered.asm.mixin.Mixin;
 import org.spongepowered.asm.mixin.injection.At;
@@ -8,7 +12,10 @@ import org.spongepowered.asm.mixin.injection.Inject;
 import org.spongepowered.asm.mixin.injection.callback.CallbackInfo;
 
 /**
- * Clears global Emacs state when any screen is closed.
+ * Clears global Emacs state when any screen is closed,
+ * and saves undo history for widgets bound to a session key.
+ * Also draws the kill ring browser over whichever screen it was opened on,
+ * and the prompt of a history search in a field outside chat.
  * Note: Mark state is now per-widget and cleaned up automatically via WeakHashMap.
  * HistorySearch is now per-ChatScreen (handled in ChatScreenMixin).
  */
@@ -19,5 +26,14 @@ public class ScreenMixin {
     private void onRemoved(CallbackInfo ci) {
         // Clear yank tracking - prevents M-y from working across screens
         KillRing.clearYankTracking();
+        // Save undo history of this screen's widgets so it survives reopening
+        UndoManager.saveBoundSessions();
+        KillRingBrowser.close();
+    }
+
+    @Inject(method = "render", at = @At("TAIL"))
+    private void onRender(GuiGraphics graphics, int mouseX, int mouseY, float partialTick, CallbackInfo ci) {
+        InputHistorySearch.render(graphics);
+        KillRingBrowser.render(graphics);
     }
 }
@@ -0,0 +1,111 @@
+package net.woadwizard.search;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * How often and how recently each distinct entry of a history was sent,
+ * for ranking search results by frecency.
+ *
+ * The counts are updated as entries are added to and dropped from the
+ * history, so ranking never rescans it. An entry's score is its use count
+ * weighted by how long ago it was last used, counted in entries sent since,
+ * in a few buckets like Firefox's address bar.
+ */
+final class Frecency {
+    private static final int[] AGE_LIMITS = {10, 50, 200, 1000};
+    private static final int[] AGE_WEIGHTS = {100, 70, 50, 30};
+    private static final int OLDEST_WEIGHT = 10;
+
+    private static final class Usage {
+        int count;
+        long lastSeq;
+    }
+
+    private final Map<String, Usage> usage = new HashMap<>();
+    private long latestSeq = -1;
+
+    /**
+     * Record an entry added to the history under the given sequence number.
+     */
+    void added(String entry, long seq) {
+        Usage u = usage.computeIfAbsent(entry, k -> new Usage());
+        u.count++;
+        u.lastSeq = seq;
+        latestSeq = Math.max(latestSeq, seq);
+    }
+
+    /**
+     * Record the oldest occurrence of an entry dropped from the history.
+     */
+    void removed(String entry) {
+        Usage u = usage.get(entry);
+        if (u != null && --u.count <= 0) {
+            usage.remove(entry);
+        }
+    }
+
+    /**
+     * The distinct entries, best first, as the sequence number of each one's latest use.
+     * Equal scores go to the more recently used entry.
+     */
+    long[] ranked() {
+        List<Usage> entries = new ArrayList<>(usage.values());
+        entries.sort((a, b) -> {
+            int byScore = Long.compare(score(b), score(a));
+            return byScore != 0 ? byScore : Long.compare(b.lastSeq, a.lastSeq);
+        });
+        long[] seqs = new long[entries.size()];
+        for (int i = 0; i < seqs.length; i++) {
+            seqs[i] = entries.get(i).lastSeq;
+        }
+        return seqs;
+    }
+
+    /**
+     * Receives a distinct entry with its score and the sequence number of its latest use.
+     */
+    interface ScoreVisitor {
+        void visit(String entry, long score, long lastSeq);
+    }
+
+    /**
+     * Visit every distinct entry with its score, in no particular order, for
+     * combining the scores of several histories.
+     */
+    void forEachScore(ScoreVisitor visitor) {
+        for (Map.Entry<String, Usage> entry : usage.entrySet()) {
+            Usage u = entry.getValue();
+            visitor.visit(entry.getKey(), score(u), u.lastSeq);
+        }
+    }
+
+    private long score(Usage u) {
+        long age = latestSeq - u.lastSeq;
+        for (int i = 0; i < AGE_LIMITS.length; i++) {
+            if (age < AGE_LIMITS[i]) {
+                return (long) u.count * AGE_WEIGHTS[i];
+            }
+        }
+        return (long) u.count * OLDEST_WEIGHT;
+    }
+
+    /**
+     * Rank a plain history list (oldest first).
+     * @return history indexes of its distinct entries, best first
+     */
+    static int[] rank(List<String> history) {
+        Frecency frecency = new Frecency();
+        for (int i = 0; i < history.size(); i++) {
+            frecency.added(history.get(i), i);
+        }
+        long[] seqs = frecency.ranked();
+        int[] indexes = new int[seqs.length];
+        for (int i = 0; i < seqs.length; i++) {
+            indexes[i] = (int) seqs[i];
+        }
+        return indexes;
+    }
+}
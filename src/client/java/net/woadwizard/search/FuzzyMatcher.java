@@ -0,0 +1,99 @@
+package net.woadwizard.search;
+
+/**
+ * fzf-style fuzzy matching: a query matches an entry if its characters appear
+ * in the entry in order. Matches are scored so that runs of consecutive
+ * characters and characters at word starts rank above scattered ones.
+ *
+ * Scoring looks at a single alignment: the first place the query completes
+ * going forward, then tightened by matching backward from there (like fzf's
+ * v1 algorithm), so it is linear in the entry length.
+ */
+public final class FuzzyMatcher {
+    public static final int NO_MATCH = Integer.MIN_VALUE;
+
+    private static final int SCORE_MATCH = 16;
+    private static final int PENALTY_GAP_START = 3;
+    private static final int PENALTY_GAP_EXTENSION = 1;
+    private static final int BONUS_BOUNDARY = 8;
+    private static final int BONUS_CONSECUTIVE = 4;
+    private static final int BONUS_FIRST_CHAR_MULTIPLIER = 2;
+
+    private FuzzyMatcher() {}
+
+    /**
+     * Check if the query's characters appear in the text in order.
+     */
+    public static boolean isSubsequence(String text, String query) {
+        int q = 0;
+        for (int i = 0; i < text.length() && q < query.length(); i++) {
+            if (text.charAt(i) == query.charAt(q)) {
+                q++;
+            }
+        }
+        return q == query.length();
+    }
+
+    /**
+     * Score a fuzzy match and record where the query's characters matched.
+     * @param positions receives the matched char index for each query char; at least query.length() long
+     * @return the score (higher is better), or NO_MATCH
+     */
+    public static int score(String text, String query, int[] positions) {
+        if (query.isEmpty()) {
+            return NO_MATCH;
+        }
+        // Forward: find where the first complete match ends
+        int q = 0;
+        int end = -1;
+        for (int i = 0; i < text.length(); i++) {
+            if (text.charAt(i) == query.charAt(q) && ++q == query.length()) {
+                end = i;
+                break;
+            }
+        }
+        if (end < 0) {
+            return NO_MATCH;
+        }
+        // Backward from there: the shortest window ending at the same place
+        q = query.length() - 1;
+        for (int i = end; i >= 0 && q >= 0; i--) {
+            if (text.charAt(i) == query.charAt(q)) {
+                positions[q--] = i;
+            }
+        }
+
+        int score = 0;
+        for (int k = 0; k < query.length(); k++) {
+            int pos = positions[k];
+            int bonus = boundaryBonus(text, pos);
+            score += SCORE_MATCH;
+            if (k == 0) {
+                score += bonus * BONUS_FIRST_CHAR_MULTIPLIER;
+            } else if (pos == positions[k - 1] + 1) {
+                score += Math.max(bonus, BONUS_CONSECUTIVE);
+            } else {
+                int gap = pos - positions[k - 1] - 1;
+                score += bonus - PENALTY_GAP_START - PENALTY_GAP_EXTENSION * (gap - 1);
+            }
+        }
+        return score;
+    }
+
+    /**
+     * Bonus for matching at the start of a word, path segment or argument.
+     */
+    private static int boundaryBonus(String text, int pos) {
+        if (pos == 0) {
+            return BONUS_BOUNDARY;
+        }
+        char previous = text.charAt(pos - 1);
+        if (!Character.isLetterOrDigit(previous)) {
+            return BONUS_BOUNDARY;
+        }
+        if (Character.isLowerCase(previous) && Character.isUpperCase(text.charAt(pos))) {
+            return BONUS_BOUNDARY / 2;
+        }
+        return 0;
+    }
+}
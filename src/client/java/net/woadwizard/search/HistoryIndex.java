@@ -0,0 +1,174 @@
+package net.woadwizard.search;
+
+import net.woadwizard.config.ConfigHelper;
+import net.woadwizard.undo.SessionKeys;
+import net.minecraft.client.Minecraft;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+/**
+ * Long-lived indexes over the sent chat and command histories.
+ *
+ * When history is saved (the default), these are the current world's
+ * histories from HistoryStore, loaded and indexed in the background when chat
+ * is first opened in that world and extended as messages are sent. Until they
+ * are loaded, searches use vanilla's lists; nothing waits for the load.
+ * Otherwise they mirror vanilla's
+ * recent chat and command history: kept up to date as messages are sent
+ * (see ChatComponentMixin and CommandHistoryMixin) and checked against
+ * vanilla's lists whenever a search starts, which costs nothing when they
+ * already agree.
+ */
+public final class HistoryIndex {
+    private static final Logger LOGGER = LoggerFactory.getLogger(HistoryIndex.class);
+
+    private static final IndexedHistory chat = new IndexedHistory(HistoryStore.Kind.CHAT);
+    private static final IndexedHistory commands = new IndexedHistory(HistoryStore.Kind.COMMAND);
+
+    // Saved histories of the loaded world
+    private static String partition = null;
+    private static IndexedHistory savedChat = null;
+    private static IndexedHistory savedCommands = null;
+    private static String loadingPartition = null;
+    private static Future<Loaded> loading = null;
+
+    /**
+     * A world's saved histories, indexed on the loader thread.
+     */
+    private record Loaded(IndexedHistory chat, IndexedHistory commands) {}
+
+    private HistoryIndex() {}
+
+    /**
+     * Sent chat messages: the saved history of the current world, or else
+     * ChatComponent's recent chat.
+     */
+    public static IndexedHistory chat() {
+        if (ensureLoaded()) {
+            return savedChat;
+        }
+        chat.sync(Minecraft.getInstance().gui.getChat().getRecentChat());
+        return chat;
+    }
+
+    /**
+     * Sent commands: the saved history of the current world, or else the
+     * command history.
+     */
+    public static IndexedHistory commands() {
+        if (ensureLoaded()) {
+            return savedCommands;
+        }
+        commands.sync(asList(Minecraft.getInstance().commandHistory().history()));
+        return commands;
+    }
+
+    /**
+     * Sent chat and commands together, in the order they were sent.
+     */
+    public static MergedHistory merged() {
+        return new MergedHistory(chat(), commands());
+    }
+
+    /**
+     * Start loading the current world's saved history, if it isn't loaded yet.
+     * Called when chat opens, so it is usually ready by the first C-r.
+     */
+    public static void prefetch() {
+        if (!ConfigHelper.isHistoryPersistent()) {
+            return;
+        }
+        String key = SessionKeys.world();
+        if (!key.equals(partition) && !key.equals(loadingPartition)) {
+            loadingPartition = key;
+            loading = HistoryStore.load(key, EnumSet.of(HistoryStore.Kind.CHAT, HistoryStore.Kind.COMMAND),
+                ConfigHelper.getHistoryMaxEntries(), loaded -> new Loaded(
+                toHistory(HistoryStore.Kind.CHAT, loaded.chat()),
+                toHistory(HistoryStore.Kind.COMMAND, loaded.commands())));
+        }
+    }
+
+    public static void onChatSent(String message, List<String> recentChat) {
+        chat.sync(recentChat);
+        save(HistoryStore.Kind.CHAT, message, savedChat);
+    }
+
+    public static void onCommandAdded(String command, Collection<String> history) {
+        commands.sync(asList(history));
+        save(HistoryStore.Kind.COMMAND, command, savedCommands);
+    }
+
+    /**
+     * Save a sent entry, and add it to the loaded history if it belongs to it.
+     * Like vanilla, an entry repeating the one before it is not added again.
+     */
+    private static void save(HistoryStore.Kind kind, String text, IndexedHistory saved) {
+        if (!ConfigHelper.isHistoryPersistent()) {
+            return;
+        }
+        String key = SessionKeys.world();
+        if (key.equals(partition)) {
+            if (saved.size() > 0 && saved.get(saved.size() - 1).equals(text)) {
+                return;
+            }
+            saved.add(text, ConfigHelper.getHistoryMaxEntries());
+        }
+        HistoryStore.append(key, kind, text);
+    }
+
+    /**
+     * Check if the current world's saved history is loaded, taking it over if
+     * the background load just finished. Never waits for the load.
+     * @return false if history isn't saved, or isn't loaded yet
+     */
+    private static boolean ensureLoaded() {
+        if (!ConfigHelper.isHistoryPersistent()) {
+            return false;
+        }
+        String key = SessionKeys.world();
+        if (key.equals(partition)) {
+            return true;
+        }
+        prefetch();
+        if (!loading.isDone()) {
+            // Still loading; search vanilla's history this time
+            LOGGER.debug("Saved chat history for {} is still loading", key);
+            return false;
+        }
+        try {
+            Loaded loaded = loading.get();
+            savedChat = loaded.chat();
+            savedCommands = loaded.commands();
+            partition = key;
+            loading = null;
+            loadingPartition = null;
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            LOGGER.warn("Failed to load saved chat history for {}", key, e);
+        }
+        loading = null;
+        loadingPartition = null;
+        return false;
+    }
+
+    private static IndexedHistory toHistory(HistoryStore.Kind kind, List<HistoryStore.Entry> entries) {
+        IndexedHistory history = new IndexedHistory(kind);
+        for (HistoryStore.Entry entry : entries) {
+            history.add(entry.text(), entry.timestamp(), Integer.MAX_VALUE);
+        }
+        return history;
+    }
+
+    private static List<String> asList(Collection<String> entries) {
+        return entries instanceof List<String> list ? list : new ArrayList<>(entries);
+    }
+}
@@ -5,7 +5,21 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
 
 /**
  * Emacs-style incremental history search (C-r / C-s).
@@ -14,9 +28,65 @@ import java.util.List;
  * Use SearchController to sync state to UI components.
  *
  * Each ChatScreen should have its own instance.
+ *
+ * Matches are found incrementally. A query can only match entries that its
+ * prefix matched, so typing a character filters the previous candidates
+ * instead of rescanning the history, and the candidates for every prefix are
+ * kept so Backspace is free. Candidates are entries, not occurrences: the
+ * selected occurrence is found within its entry only when cycling reaches
+ * it, and only the selected match is ever materialized.
+ *
+ * When searching an IndexedHistory (or a MergedHistory of several), queries of three or more characters start
+ * from the entries its trigram index returns instead of scanning the history.
+ *
+ * In fuzzy mode (M-z) an entry matches if it contains the query's characters
+ * in order. Candidates narrow the same way, and are then scored with
+ * FuzzyMatcher; only the best MAX_FUZZY_RESULTS are kept, in a bounded heap,
+ * and only those are sorted. Cycling walks them from best to worst.
+ *
+ * In regex mode (M-r) the query is a regular expression. Regex matches can't
+ * be narrowed from a prefix's, so each query scans the history from the
+ * newest entry, but only until the selected match is found; older matches
+ * are looked for when cycling reaches them. Compiled patterns are cached by
+ * query, so Backspace and retyping don't recompile, and one Matcher is reset
+ * onto each entry for the whole session. A query that isn't a valid pattern
+ * (such as an unclosed group while typing) simply has no matches. Histories
+ * of BACKGROUND_THRESHOLD or more entries are scanned on the background
+ * thread instead, like long substring searches below, and the text a pattern
+ * is matched against there gives up as soon as the scan is superseded, so a
+ * pattern that backtracks catastrophically never holds up the game.
+ *
+ * In frecent mode (M-s) each distinct entry is a candidate once, however
+ * often it was sent, and candidates are ordered by Frecency instead of by
+ * recency. The order is set once, in the whole-history candidates, when the
+ * search starts; narrowing keeps the candidates' order, so every query's
+ * matches come out ranked without sorting them.
+ *
+ * Narrowing BACKGROUND_THRESHOLD or more candidates (as with a long persisted
+ * history) runs on a background thread instead of the render thread. The
+ * search goes straight to the full query, in chunks from the newest entry,
+ * and publishes each chunk's matches as an immutable result; the render
+ * thread picks them up with applyBackgroundResults, so the newest matches
+ * show while older chunks are still being scanned. Any newer keystroke
+ * cancels the search in flight. The prefixes it skipped are narrowed again
+ * if Backspace reaches them.
  */
 public class HistorySearch {
     private static final Logger LOGGER = LoggerFactory.getLogger(HistorySearch.class);
+    private static final int[] NO_CANDIDATES = new int[0];
+    private static final int MAX_FUZZY_RESULTS = 100;
+    private static final int MAX_CACHED_PATTERNS = 64;
+    private static final int BACKGROUND_THRESHOLD = 20_000;
+    private static final int BACKGROUND_CHUNK_SIZE = 4096;
+    private static final ExecutorService SEARCHER = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "EmacsInput History Search");
+        thread.setDaemon(true);
+        return thread;
+    });
+    // Worst first: lower score, then older entry
+    private static final Comparator<Match> WORST_FIRST = Comparator
+        .comparingInt(Match::score)
+        .thenComparingInt(Match::historyIndex);
 
     // Search state
     private boolean active = false;
@@ -24,28 +94,108 @@ public class HistorySearch {
     private String lastQuery = "";  // Remembered for C-r reuse
     private String originalInput = "";
     private List<String> history = List.of();
+    private SearchableHistory indexed = null;
+    // History as searched: entries are case-folded on first use, once per enter
+    private String[] foldedHistory = new String[0];
+    private boolean caseSensitive = false;
+    // Kept across searches, like the last query
+    private SearchMode mode = SearchMode.SUBSTRING;
+
+    // Candidate history indexes (newest first) for each query length; index 0 is the whole history.
+    // Lengths skipped by a background search are null.
+    private final List<int[]> candidatesByLength = new ArrayList<>();
+    // Selected match: position in the current candidates and the query's position in that entry
+    private int selectedCandidate = -1;
+    private int selectedPosition = -1;
+    // Fuzzy mode: the best scored candidates, best first; selectedCandidate indexes this
+    private List<Match> ranked = List.of();
+    private final PriorityQueue<Match> fuzzyBest = new PriorityQueue<>(MAX_FUZZY_RESULTS + 1, WORST_FIRST);
+
+    // Background search: bumping the generation cancels the search in flight
+    private final AtomicInteger generation = new AtomicInteger();
+    private final Queue<BackgroundResult> backgroundResults = new ConcurrentLinkedQueue<>();
+    // Query length being searched in the background, or -1; matches found so far, newest first
+    private int pendingLength = -1;
+    private int[] partialCandidates = NO_CANDIDATES;
 
-    // Match tracking
-    private List<Match> matches = new ArrayList<>();
-    private int selectedIndex = -1;
+    // Regex mode: compiled patterns by query, null for invalid ones (least recently used dropped first)
+    private final Map<String, Pattern> patternCache = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Pattern> eldest) {
+            return size() > MAX_CACHED_PATTERNS;
+        }
+    };
+    private boolean patternCacheCaseSensitive = false;
+    private Pattern pattern = null;
+    private Matcher matcher = null;
+    // Matching history indexes found so far, newest first; selectedCandidate indexes this
+    private int[] regexMatches = NO_CANDIDATES;
+    private int regexMatchCount = 0;
+    // Entries checked so far, counting back from the newest (all of them if a background scan checks them)
+    private int regexScanned = 0;
+    private int selectedEnd = -1;
+
+    // Bumped on every change to the query, matches or selection
+    private int version = 0;
+    // getState() for the current version, so rendering a frame doesn't rebuild it
+    private SearchState cachedState = null;
 
     /**
      * Represents a match: the history entry text, its index in history,
      * and the position of the query within the text.
+     * Fuzzy matches also carry the position of each matched character and their score;
+     * highlights is null for a contiguous match.
+     * The source says whether the entry was sent as chat or a command; it is null
+     * when searching a plain list.
+     */
+    public record Match(String text, int historyIndex, int queryPosition, int[] highlights, int score,
+                        HistoryStore.Kind source) {
+        public Match(String text, int historyIndex, int queryPosition, HistoryStore.Kind source) {
+            this(text, historyIndex, queryPosition, null, 0, source);
+        }
+    }
+
+    /**
+     * Matching history indexes from one chunk of a background search, newest first.
+     */
+    private record BackgroundResult(int generation, int[] matches, boolean done) {}
+
+    /**
+     * Enter search mode over an indexed history.
      */
-    public record Match(String text, int historyIndex, int queryPosition) {}
+    public void enter(String currentInput, SearchableHistory indexedHistory) {
+        enter(currentInput, indexedHistory.view(), indexedHistory);
+    }
 
     /**
      * Enter search mode.
-     * Takes a List directly to avoid unnecessary copying.
+     * Takes a List directly to avoid unnecessary copying, except for histories
+     * large enough to be searched in the background, which get a snapshot.
      */
     public void enter(String currentInput, List<String> historyList) {
+        enter(currentInput, historyList, null);
+    }
+
+    private void enter(String currentInput, List<String> historyList, SearchableHistory indexedHistory) {
+        version++;
         active = true;
         query.setLength(0);
         originalInput = currentInput;
         history = historyList != null ? historyList : List.of();
-        matches.clear();
-        selectedIndex = -1;
+        if (history.size() >= BACKGROUND_THRESHOLD) {
+            // The background thread must not see the history change under it
+            history = Arrays.asList(history.toArray(new String[0]));
+        }
+        indexed = indexedHistory;
+        caseSensitive = ConfigHelper.isHistorySearchCaseSensitive();
+        if (caseSensitive != patternCacheCaseSensitive) {
+            patternCache.clear();
+            patternCacheCaseSensitive = caseSensitive;
+        }
+        matcher = null;
+        foldedHistory = new String[history.size()];
+        resetCandidates();
+        clearSelection();
         LOGGER.debug("Entered search mode with {} history entries", history.size());
     }
 
@@ -53,6 +203,7 @@ public class HistorySearch {
      * Exit search mode, remembering query for potential reuse.
      */
     public void exit() {
+        version++;
         if (!active) {
             return;
         }
@@ -62,12 +213,20 @@ public class HistorySearch {
         } else {
             LOGGER.debug("Exited search mode");
         }
+        cancelBackgroundSearch();
         active = false;
         query.setLength(0);
         originalInput = "";
         history = List.of();
-        matches.clear();
-        selectedIndex = -1;
+        indexed = null;
+        foldedHistory = new String[0];
+        candidatesByLength.clear();
+        ranked = List.of();
+        pattern = null;
+        matcher = null;
+        regexMatches = NO_CANDIDATES;
+        regexMatchCount = 0;
+        clearSelection();
     }
 
     /**
@@ -77,10 +236,30 @@ public class HistorySearch {
         return active;
     }
 
+    public SearchMode getMode() {
+        return mode;
+    }
+
+    /**
+     * Switch to the given mode, or back to substring search if it is already on.
+     * The current query is searched again in the new mode.
+     */
+    public void toggleMode(SearchMode toggled) {
+        version++;
+        mode = mode == toggled ? SearchMode.SUBSTRING : toggled;
+        LOGGER.debug("Search mode is now {}", mode);
+        if (active) {
+            resetCandidates();
+            rebuildMatches();
+            selectFirstMatch();
+        }
+    }
+
     /**
      * Append a character to the search query.
      */
     public void appendToQuery(char c) {
+        version++;
         query.append(c);
         rebuildMatches();
         selectFirstMatch();
@@ -90,9 +269,25 @@ public class HistorySearch {
      * Delete the last character from the search query.
      */
     public void deleteFromQuery() {
+        version++;
         if (query.length() > 0) {
             query.setLength(query.length() - 1);
-            rebuildMatches();
+            if (mode == SearchMode.REGEX) {
+                startRegexScan();
+                selectFirstMatch();
+                return;
+            }
+            cancelBackgroundSearch();
+            // The candidates for the shorter query are usually already known
+            while (candidatesByLength.size() > query.length() + 1) {
+                candidatesByLength.remove(candidatesByLength.size() - 1);
+            }
+            if (candidatesByLength.size() <= query.length() || candidatesByLength.get(query.length()) == null) {
+                // Skipped by a background search
+                rebuildMatches();
+            } else if (mode == SearchMode.FUZZY) {
+                rankFuzzyMatches();
+            }
             selectFirstMatch();
         }
     }
@@ -101,32 +296,64 @@ public class HistorySearch {
      * Cycle to the previous match (C-r direction).
      */
     public void cyclePrevious() {
-        if (matches.isEmpty()) return;
+        version++;
+        if (mode == SearchMode.REGEX) {
+            cycleRegexPrevious();
+            return;
+        }
+        int[] candidates = currentCandidates();
+        if (candidates.length == 0) return;
 
-        if (selectedIndex < 0) {
-            selectedIndex = 0;
-        } else {
-            selectedIndex++;
-            if (selectedIndex >= matches.size()) {
-                selectedIndex = 0;
-            }
+        if (selectedCandidate < 0) {
+            selectFirstMatch();
+            return;
+        }
+        if (mode == SearchMode.FUZZY) {
+            // Next best match
+            selectedCandidate = (selectedCandidate + 1) % ranked.size();
+            return;
         }
+        // Further left in the same entry, else the rightmost in the next older entry
+        String needle = searchQuery();
+        int previous = selectedPosition > 0
+            ? searchText(candidates[selectedCandidate]).lastIndexOf(needle, selectedPosition - 1)
+            : -1;
+        if (previous >= 0) {
+            selectedPosition = previous;
+            return;
+        }
+        selectedCandidate = (selectedCandidate + 1) % candidates.length;
+        selectedPosition = searchText(candidates[selectedCandidate]).lastIndexOf(needle);
     }
 
     /**
      * Cycle to the next match (C-s direction).
      */
     public void cycleNext() {
-        if (matches.isEmpty()) return;
+        version++;
+        if (mode == SearchMode.REGEX) {
+            cycleRegexNext();
+            return;
+        }
+        int[] candidates = currentCandidates();
+        if (candidates.length == 0) return;
 
-        if (selectedIndex < 0) {
-            selectedIndex = matches.size() - 1;
-        } else {
-            selectedIndex--;
-            if (selectedIndex < 0) {
-                selectedIndex = matches.size() - 1;
+        if (mode == SearchMode.FUZZY) {
+            // Next better match
+            selectedCandidate = selectedCandidate <= 0 ? ranked.size() - 1 : selectedCandidate - 1;
+            return;
+        }
+        // Further right in the same entry, else the leftmost in the next newer entry
+        String needle = searchQuery();
+        if (selectedCandidate >= 0) {
+            int next = searchText(candidates[selectedCandidate]).indexOf(needle, selectedPosition + 1);
+            if (next >= 0) {
+                selectedPosition = next;
+                return;
             }
         }
+        selectedCandidate = selectedCandidate <= 0 ? candidates.length - 1 : selectedCandidate - 1;
+        selectedPosition = searchText(candidates[selectedCandidate]).indexOf(needle);
     }
 
     /**
@@ -137,8 +364,10 @@ public class HistorySearch {
         if (lastQuery.isEmpty()) {
             return false;
         }
+        version++;
         query.setLength(0);
         query.append(lastQuery);
+        resetCandidates();
         rebuildMatches();
         selectFirstMatch();
         return true;
@@ -153,60 +382,644 @@ public class HistorySearch {
 
     /**
      * Get an immutable snapshot of the current search state.
+     * The same instance is returned until the search changes.
      */
     public SearchState getState() {
-        Match selected = (selectedIndex >= 0 && selectedIndex < matches.size())
-            ? matches.get(selectedIndex)
-            : null;
+        if (cachedState != null && cachedState.version() == version) {
+            return cachedState;
+        }
+        // Materialize only the selected match
+        Match selected = selectedCandidate >= 0 ? materializeMatch(selectedCandidate) : null;
 
         int historyIndex = (selected != null) ? selected.historyIndex() : -1;
 
-        return new SearchState(
+        cachedState = new SearchState(
             active,
             query.toString(),
             originalInput,
             selected,
-            !matches.isEmpty(),
-            historyIndex
+            hasMatches(),
+            historyIndex,
+            mode,
+            pendingLength >= 0,
+            version
         );
+        return cachedState;
+    }
+
+    /**
+     * A number that changes whenever the query, matches or selection change,
+     * so views can cache what they build from them.
+     */
+    public int getVersion() {
+        return version;
     }
 
     /**
-     * Rebuild the matches list based on current query.
+     * Number of matches (entries, not occurrences) found so far.
+     */
+    public int getMatchCount() {
+        return switch (mode) {
+            case FUZZY -> ranked.size();
+            case REGEX -> regexMatchCount;
+            default -> currentCandidates().length;
+        };
+    }
+
+    /**
+     * Position of the selected match among all matches, or -1.
+     */
+    public int getSelectedIndex() {
+        return selectedCandidate;
+    }
+
+    /**
+     * Materialize a range of matches for display, each at its selected or
+     * newest occurrence. In regex mode this looks for older matches as needed.
+     * @return up to count matches starting at position from
+     */
+    public List<Match> getMatches(int from, int count) {
+        List<Match> matches = new ArrayList<>(count);
+        if (mode == SearchMode.REGEX) {
+            findRegexMatches(from + count);
+        }
+        int end = Math.min(getMatchCount(), from + count);
+        for (int i = Math.max(0, from); i < end; i++) {
+            matches.add(materializeMatch(i));
+        }
+        return matches;
+    }
+
+    private Match materializeMatch(int i) {
+        if (mode == SearchMode.FUZZY) {
+            return ranked.get(i);
+        }
+        boolean selected = i == selectedCandidate;
+        if (mode == SearchMode.REGEX) {
+            int index = regexMatches[i];
+            int start = selectedPosition;
+            int end = selectedEnd;
+            if (!selected) {
+                // The last occurrence, as C-r would select it
+                matcher.reset(history.get(index));
+                while (matcher.find()) {
+                    start = matcher.start();
+                    end = matcher.end();
+                }
+            }
+            int[] highlights = new int[end - start];
+            for (int k = 0; k < highlights.length; k++) {
+                highlights[k] = start + k;
+            }
+            return new Match(history.get(index), index, start, highlights, 0, sourceOf(index));
+        }
+        int index = currentCandidates()[i];
+        int position = selected ? selectedPosition : searchText(index).lastIndexOf(searchQuery());
+        return new Match(history.get(index), index, position, sourceOf(index));
+    }
+
+    private HistoryStore.Kind sourceOf(int index) {
+        return indexed != null ? indexed.source(index) : null;
+    }
+
+    /**
+     * Take in matches published by the background search, if one is running.
+     * Call this from the render thread every frame.
+     * @return true if the state changed and should be synced to the UI
+     */
+    public boolean applyBackgroundResults() {
+        if (pendingLength < 0) {
+            return false;
+        }
+        int[] found = NO_CANDIDATES;
+        boolean done = false;
+        BackgroundResult result;
+        while ((result = backgroundResults.poll()) != null) {
+            if (result.generation() != generation.get()) {
+                continue;  // From a cancelled search
+            }
+            found = concat(found, result.matches());
+            done |= result.done();
+        }
+        if (found.length == 0 && !done) {
+            return false;
+        }
+        if (mode == SearchMode.REGEX) {
+            for (int index : found) {
+                addRegexMatch(index);
+            }
+            if (done) {
+                pendingLength = -1;
+                LOGGER.debug("Background scan for '{}' matches {} entries", query, regexMatchCount);
+            }
+            if (selectedCandidate < 0) {
+                selectFirstMatch();
+            }
+            version++;
+            return true;
+        }
+        partialCandidates = concat(partialCandidates, found);
+        if (done) {
+            setCandidates(pendingLength, partialCandidates);
+            pendingLength = -1;
+            partialCandidates = NO_CANDIDATES;
+            LOGGER.debug("Background search for '{}' matches {} entries", query, currentCandidates().length);
+        }
+        // Fuzzy ranks are positions that move as matches arrive; keep the selected entry
+        int selectedEntry = mode == SearchMode.FUZZY && selectedCandidate >= 0
+                ? ranked.get(selectedCandidate).historyIndex()
+                : -1;
+        if (mode == SearchMode.FUZZY) {
+            addFuzzyCandidates(found);
+        }
+        if (selectedCandidate < 0) {
+            selectFirstMatch();
+        } else if (mode == SearchMode.FUZZY) {
+            // Better matches may have arrived ahead of the selected one
+            selectedCandidate = rankOf(selectedEntry);
+            selectedPosition = ranked.get(selectedCandidate).queryPosition();
+        }
+        version++;
+        return true;
+    }
+
+    /**
+     * Find the fuzzy rank of a history entry, or the worst rank if it was
+     * pushed out of the best matches.
+     */
+    private int rankOf(int historyIndex) {
+        for (int i = 0; i < ranked.size(); i++) {
+            if (ranked.get(i).historyIndex() == historyIndex) {
+                return i;
+            }
+        }
+        return ranked.size() - 1;
+    }
+
+    /**
+     * Extend the candidates to the current query, narrowing from the longest
+     * prefix whose candidates are known.
      */
     private void rebuildMatches() {
-        matches.clear();
+        if (mode == SearchMode.REGEX) {
+            startRegexScan();
+            return;
+        }
+        cancelBackgroundSearch();
+        String needle = searchQuery();
+        // Narrow on from the longest prefix whose candidates are known
+        int length = needle.length();
+        while (length >= candidatesByLength.size() || candidatesByLength.get(length) == null) {
+            length--;
+        }
+        int[] previous = candidatesByLength.get(length);
+        while (length < needle.length()) {
+            length++;
+            if (mode == SearchMode.SUBSTRING && indexed != null && length <= TrigramIndex.GRAM_LENGTH
+                    && needle.length() >= TrigramIndex.GRAM_LENGTH
+                    && (length == TrigramIndex.GRAM_LENGTH || previous.length >= BACKGROUND_THRESHOLD)) {
+                // Start from the entries sharing the query's trigrams, not the whole history
+                length = TrigramIndex.GRAM_LENGTH;
+                previous = indexed.candidates(needle.substring(0, length));
+            }
+            if (previous.length >= BACKGROUND_THRESHOLD) {
+                startBackgroundSearch(previous, needle);
+                return;
+            }
+            previous = narrow(previous, needle.substring(0, length), mode);
+            setCandidates(length, previous);
+        }
+        if (mode == SearchMode.FUZZY) {
+            rankFuzzyMatches();
+        }
+        LOGGER.debug("Search query '{}' matches {} entries", query, currentCandidates().length);
+    }
 
-        if (query.length() == 0) {
+    private int[] narrow(int[] candidates, String prefix, SearchMode searchMode) {
+        int[] narrowed = new int[candidates.length];
+        int count = 0;
+        for (int index : candidates) {
+            if (matches(searchText(index), prefix, searchMode)) {
+                narrowed[count++] = index;
+            }
+        }
+        return count == narrowed.length ? narrowed : Arrays.copyOf(narrowed, count);
+    }
+
+    private static boolean matches(String text, String query, SearchMode searchMode) {
+        return searchMode == SearchMode.FUZZY ? FuzzyMatcher.isSubsequence(text, query) : text.contains(query);
+    }
+
+    private void setCandidates(int length, int[] candidates) {
+        while (candidatesByLength.size() <= length) {
+            candidatesByLength.add(null);
+        }
+        candidatesByLength.set(length, candidates);
+    }
+
+    // ========== Background Search ==========
+
+    /**
+     * Narrow the candidates to the full query on the background thread.
+     * Lengths in between are left unknown.
+     */
+    private void startBackgroundSearch(int[] candidates, String needle) {
+        int job = generation.incrementAndGet();
+        pendingLength = needle.length();
+        partialCandidates = NO_CANDIDATES;
+        fuzzyBest.clear();
+        ranked = List.of();
+        // Everything the task reads is captured here; the entries list doesn't change during a search
+        List<String> entries = history;
+        SearchMode searchMode = mode;
+        boolean fold = !caseSensitive;
+        LOGGER.debug("Searching {} entries for '{}' in the background", candidates.length, query);
+
+        SEARCHER.execute(() -> {
+            for (int start = 0; start < candidates.length; start += BACKGROUND_CHUNK_SIZE) {
+                if (generation.get() != job) {
+                    return;  // Superseded by a newer query
+                }
+                int end = Math.min(candidates.length, start + BACKGROUND_CHUNK_SIZE);
+                int[] found = new int[end - start];
+                int count = 0;
+                for (int i = start; i < end; i++) {
+                    String text = entries.get(candidates[i]);
+                    if (matches(fold ? TrigramIndex.fold(text) : text, needle, searchMode)) {
+                        found[count++] = candidates[i];
+                    }
+                }
+                backgroundResults.add(new BackgroundResult(job, Arrays.copyOf(found, count), end == candidates.length));
+            }
+        });
+    }
+
+    private void cancelBackgroundSearch() {
+        generation.incrementAndGet();
+        backgroundResults.clear();
+        pendingLength = -1;
+        partialCandidates = NO_CANDIDATES;
+    }
+
+    private static int[] concat(int[] first, int[] second) {
+        if (first.length == 0) {
+            return second;
+        }
+        if (second.length == 0) {
+            return first;
+        }
+        int[] joined = Arrays.copyOf(first, first.length + second.length);
+        System.arraycopy(second, 0, joined, first.length, second.length);
+        return joined;
+    }
+
+    // ========== Fuzzy Mode ==========
+
+    /**
+     * Score the current candidates, keeping the best MAX_FUZZY_RESULTS, best first.
+     * Ties go to the newer entry.
+     */
+    private void rankFuzzyMatches() {
+        fuzzyBest.clear();
+        ranked = List.of();
+        addFuzzyCandidates(currentCandidates());
+    }
+
+    /**
+     * Score more candidates into the ranking.
+     */
+    private void addFuzzyCandidates(int[] candidates) {
+        if (candidates.length == 0) {
             return;
         }
+        String needle = searchQuery();
+        int[] positions = new int[needle.length()];
+        for (int index : candidates) {
+            int score = FuzzyMatcher.score(searchText(index), needle, positions);
+            if (score == FuzzyMatcher.NO_MATCH) {
+                continue;
+            }
+            if (fuzzyBest.size() == MAX_FUZZY_RESULTS) {
+                Match worst = fuzzyBest.peek();
+                if (score < worst.score() || (score == worst.score() && index < worst.historyIndex())) {
+                    continue;
+                }
+                fuzzyBest.poll();
+            }
+            fuzzyBest.add(new Match(history.get(index), index, positions[0], positions.clone(), score, sourceOf(index)));
+        }
+        List<Match> sorted = new ArrayList<>(fuzzyBest);
+        sorted.sort(WORST_FIRST.reversed());
+        ranked = sorted;
+    }
+
+    private boolean hasMatches() {
+        return mode == SearchMode.REGEX ? regexMatchCount > 0 : currentCandidates().length > 0;
+    }
+
+    /**
+     * Candidate entries for the current query; none for an empty query.
+     */
+    private int[] currentCandidates() {
+        if (query.length() == 0) {
+            return NO_CANDIDATES;
+        }
+        if (query.length() == pendingLength) {
+            return partialCandidates;
+        }
+        if (candidatesByLength.size() <= query.length() || candidatesByLength.get(query.length()) == null) {
+            return NO_CANDIDATES;
+        }
+        return candidatesByLength.get(query.length());
+    }
 
+    /**
+     * Forget all narrowed candidates, keeping only the whole history (newest first,
+     * or distinct entries most frecent first).
+     */
+    private void resetCandidates() {
+        cancelBackgroundSearch();
+        candidatesByLength.clear();
+        if (mode == SearchMode.FRECENT) {
+            candidatesByLength.add(indexed != null ? indexed.byFrecency() : Frecency.rank(history));
+        } else {
+            int[] all = new int[history.size()];
+            for (int i = 0; i < all.length; i++) {
+                all[i] = all.length - 1 - i;
+            }
+            candidatesByLength.add(all);
+        }
+        ranked = List.of();
+        fuzzyBest.clear();
+    }
+
+    private String searchQuery() {
         String queryStr = query.toString();
-        boolean caseSensitive = ConfigHelper.isHistorySearchCaseSensitive();
-        String searchQuery = caseSensitive ? queryStr : queryStr.toLowerCase();
+        return caseSensitive ? queryStr : TrigramIndex.fold(queryStr);
+    }
 
-        // Iterate history from newest to oldest
-        for (int i = history.size() - 1; i >= 0; i--) {
-            String entry = history.get(i);
-            String searchEntry = caseSensitive ? entry : entry.toLowerCase();
+    /**
+     * An entry as searched: case-folded unless the search is case-sensitive.
+     */
+    private String searchText(int index) {
+        if (caseSensitive) {
+            return history.get(index);
+        }
+        String folded = foldedHistory[index];
+        if (folded == null) {
+            folded = TrigramIndex.fold(history.get(index));
+            foldedHistory[index] = folded;
+        }
+        return folded;
+    }
 
-            // Find all occurrences, right to left
-            List<Integer> positions = new ArrayList<>();
-            int pos = searchEntry.lastIndexOf(searchQuery);
-            while (pos >= 0) {
-                positions.add(pos);
-                pos = (pos > 0) ? searchEntry.lastIndexOf(searchQuery, pos - 1) : -1;
+    /**
+     * Select the newest match: the rightmost occurrence in the newest candidate.
+     */
+    private void selectFirstMatch() {
+        if (mode == SearchMode.REGEX) {
+            if (findRegexMatches(1)) {
+                selectedCandidate = 0;
+                selectLastOccurrence(Integer.MAX_VALUE);
+            } else {
+                clearSelection();
             }
+            return;
+        }
+        int[] candidates = currentCandidates();
+        if (candidates.length == 0) {
+            clearSelection();
+            return;
+        }
+        selectedCandidate = 0;
+        selectedPosition = mode == SearchMode.FUZZY
+            ? ranked.get(0).queryPosition()
+            : searchText(candidates[0]).lastIndexOf(searchQuery());
+    }
+
+    private void clearSelection() {
+        selectedCandidate = -1;
+        selectedPosition = -1;
+        selectedEnd = -1;
+    }
+
+    // ========== Regex Mode ==========
+
+    /**
+     * Compile the current query and start scanning the history from the newest entry.
+     */
+    private void startRegexScan() {
+        cancelBackgroundSearch();
+        pattern = compilePattern(query.toString());
+        regexMatchCount = 0;
+        regexScanned = 0;
+        if (pattern == null) {
+            return;
+        }
+        if (matcher == null) {
+            matcher = pattern.matcher("");
+        } else {
+            matcher.usePattern(pattern);
+        }
+        if (history.size() >= BACKGROUND_THRESHOLD) {
+            startBackgroundRegexScan(pattern);
+        }
+    }
 
-            for (int queryPos : positions) {
-                matches.add(new Match(entry, i, queryPos));
+    /**
+     * Scan the whole history for the pattern on the background thread, newest
+     * first, publishing each chunk's matches. The render thread then only
+     * takes in matches (see applyBackgroundResults), and never scans itself.
+     */
+    private void startBackgroundRegexScan(Pattern scanPattern) {
+        int job = generation.incrementAndGet();
+        pendingLength = query.length();
+        regexScanned = history.size();
+        // The entries list doesn't change during a search (see enter)
+        List<String> entries = history;
+        LOGGER.debug("Scanning {} entries for '{}' in the background", entries.size(), query);
+
+        SEARCHER.execute(() -> {
+            // Matchers aren't thread-safe, so the scan has its own
+            Matcher scanMatcher = scanPattern.matcher("");
+            int size = entries.size();
+            for (int start = 0; start < size; start += BACKGROUND_CHUNK_SIZE) {
+                if (generation.get() != job) {
+                    return;  // Superseded by a newer query
+                }
+                int end = Math.min(size, start + BACKGROUND_CHUNK_SIZE);
+                int[] found = new int[end - start];
+                int count = 0;
+                try {
+                    for (int i = start; i < end; i++) {
+                        int index = size - 1 - i;
+                        if (scanMatcher.reset(new CancellableText(entries.get(index), job)).find()) {
+                            found[count++] = index;
+                        }
+                    }
+                } catch (CancellationException e) {
+                    return;  // Superseded in the middle of an entry
+                }
+                backgroundResults.add(new BackgroundResult(job, Arrays.copyOf(found, count), end == size));
+            }
+        });
+    }
+
+    /**
+     * An entry being matched by a background regex scan. Reading it fails once
+     * the scan is superseded, which is the only way to stop a Matcher that is
+     * backtracking through a single long entry.
+     */
+    private final class CancellableText implements CharSequence {
+        // Reads between checks of the generation, which is shared with the render thread
+        private static final int CHECK_INTERVAL = 1024;
+
+        private final String text;
+        private final int job;
+        private int reads = 0;
+
+        CancellableText(String text, int job) {
+            this.text = text;
+            this.job = job;
+        }
+
+        @Override
+        public char charAt(int index) {
+            if (++reads % CHECK_INTERVAL == 0 && generation.get() != job) {
+                throw new CancellationException();
             }
+            return text.charAt(index);
+        }
+
+        @Override
+        public int length() {
+            return text.length();
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            return text.subSequence(start, end);
+        }
+
+        @Override
+        public String toString() {
+            return text;
         }
-        LOGGER.debug("Search query '{}' found {} matches", query, matches.size());
     }
 
-    private void selectFirstMatch() {
-        selectedIndex = matches.isEmpty() ? -1 : 0;
+    /**
+     * Get the compiled pattern for a query, or null if it is empty or invalid.
+     */
+    private Pattern compilePattern(String regex) {
+        if (regex.isEmpty()) {
+            return null;
+        }
+        if (patternCache.containsKey(regex)) {
+            return patternCache.get(regex);
+        }
+        Pattern compiled;
+        try {
+            compiled = Pattern.compile(regex, caseSensitive ? 0 : Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE);
+        } catch (PatternSyntaxException e) {
+            // Usually a pattern that is still being typed
+            LOGGER.debug("Invalid search pattern '{}': {}", regex, e.getDescription());
+            compiled = null;
+        }
+        patternCache.put(regex, compiled);
+        return compiled;
+    }
+
+    /**
+     * Scan older entries until at least the wanted number of matching entries
+     * is known. With a background scan, only checks the matches found so far.
+     * @return true if there are that many
+     */
+    private boolean findRegexMatches(int wanted) {
+        if (pattern == null) {
+            return false;
+        }
+        while (regexMatchCount < wanted && regexScanned < history.size()) {
+            int index = history.size() - 1 - regexScanned++;
+            if (matcher.reset(history.get(index)).find()) {
+                addRegexMatch(index);
+            }
+        }
+        return regexMatchCount >= wanted;
+    }
+
+    private void addRegexMatch(int index) {
+        if (regexMatchCount == regexMatches.length) {
+            regexMatches = Arrays.copyOf(regexMatches, Math.max(16, regexMatchCount * 2));
+        }
+        regexMatches[regexMatchCount++] = index;
+    }
+
+    private void cycleRegexPrevious() {
+        if (selectedCandidate < 0) {
+            selectFirstMatch();
+            return;
+        }
+        // Further left in the same entry, else the rightmost in the next older entry
+        if (selectLastOccurrence(selectedPosition)) {
+            return;
+        }
+        if (findRegexMatches(selectedCandidate + 2)) {
+            selectedCandidate++;
+        } else if (pendingLength >= 0) {
+            return;  // Older matches may still be found by the background scan; don't wrap yet
+        } else {
+            selectedCandidate = 0;
+        }
+        selectLastOccurrence(Integer.MAX_VALUE);
+    }
+
+    private void cycleRegexNext() {
+        if (selectedCandidate < 0) {
+            if (!findRegexMatches(1)) {
+                return;
+            }
+        } else if (selectFirstOccurrence(selectedPosition + 1)) {
+            // Further right in the same entry
+            return;
+        }
+        // Else the leftmost in the next newer entry, wrapping around to the oldest
+        if (selectedCandidate <= 0) {
+            findRegexMatches(Integer.MAX_VALUE);
+            selectedCandidate = regexMatchCount - 1;
+        } else {
+            selectedCandidate--;
+        }
+        selectFirstOccurrence(0);
+    }
+
+    /**
+     * Select the last occurrence in the selected entry starting before the given position.
+     */
+    private boolean selectLastOccurrence(int before) {
+        matcher.reset(history.get(regexMatches[selectedCandidate]));
+        boolean found = false;
+        while (matcher.find() && matcher.start() < before) {
+            selectedPosition = matcher.start();
+            selectedEnd = matcher.end();
+            found = true;
+        }
+        return found;
+    }
+
+    /**
+     * Select the first occurrence in the selected entry starting at or after the given position.
+     */
+    private boolean selectFirstOccurrence(int from) {
+        // Scan from the start so occurrences are the same non-overlapping ones C-r visits
+        matcher.reset(history.get(regexMatches[selectedCandidate]));
+        while (matcher.find()) {
+            if (matcher.start() >= from) {
+                selectedPosition = matcher.start();
+                selectedEnd = matcher.end();
+                return true;
+            }
+        }
+        return false;
     }
 
     // ========== Current Instance Tracking ==========
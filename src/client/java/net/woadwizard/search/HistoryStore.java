@@ -0,0 +1,509 @@
+package net.woadwizard.search;
+
+import net.woadwizard.config.ConfigHelper;
+import net.fabricmc.loader.api.FabricLoader;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
+
+/**
+ * Sent chat messages and commands saved across game restarts, partitioned by
+ * world (see SessionKeys.world), so C-r finds what was sent on this server
+ * last week. Text entered in other fields is saved the same way, in one
+ * partition per kind of field (see InputHistory).
+ *
+ * All partitions share one append-only record file. A second file indexes
+ * it: one fixed-size entry per record holding a hash of the record's
+ * partition and the record's offset. Loading a partition reads the index
+ * back from the newest entry in blocks and decodes only the records
+ * whose hash matches, stopping once it has enough of each kind the caller
+ * wants, so other servers' history is never read. Only a wanted kind with
+ * fewer saved entries than that makes it read back to the oldest entry,
+ * which compaction keeps to a few times what is ever loaded.
+ *
+ * Appends are queued and written in batches on a background thread: each
+ * write takes everything queued since the last one. Records are written
+ * before their index entries, and loading skips index entries that point
+ * past the end of the records, so a crash mid-write loses at most the last
+ * batch.
+ *
+ * Once the files hold well over what is ever loaded, the writer compacts
+ * them: the records file is rewritten with only the newest entries of each
+ * partition and kind (getHistoryMaxEntries(), or the partition's own limit
+ * given to setMaxEntries), and the index
+ * is rebuilt from it. The index is removed before the new records take the
+ * old ones' place, and a records file without an index gets a new one when
+ * it is next opened, so a crash mid-compaction never pairs an index with
+ * the wrong records.
+ */
+public final class HistoryStore {
+    private static final Logger LOGGER = LoggerFactory.getLogger(HistoryStore.class);
+    private static final int RECORDS_MAGIC = 0x45494853; // "EIHS"
+    private static final int INDEX_MAGIC = 0x45494849;   // "EIHI"
+    private static final int FILE_VERSION = 1;
+    private static final int HEADER_BYTES = 8;
+    // Record layout: partition length, text length, kind, timestamp, UTF-8 partition, UTF-8 text
+    private static final int RECORD_HEADER_BYTES = 4 + 4 + 1 + 8;
+    // Index entry layout: partition hash, record offset
+    private static final int INDEX_ENTRY_BYTES = 8 + 8;
+    // Index entries read at a time when loading, newest block first
+    private static final int READ_BLOCK_ENTRIES = 4096;
+    // Compact once the files hold this many times what was kept last time (or what one partition keeps)
+    private static final int COMPACT_FACTOR = 2;
+    // Compact a records file this large regardless, however few entries each partition has
+    private static final long COMPACT_BYTES = 256L * 1024 * 1024;
+
+    private static final ExecutorService IO = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "EmacsInput History Store");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private static final Queue<Record> pending = new ConcurrentLinkedQueue<>();
+    // Partitions kept to their own number of entries when compacting
+    private static final Map<String, Integer> maxEntriesByPartition = new ConcurrentHashMap<>();
+    private static final AtomicBoolean writePending = new AtomicBoolean(false);
+
+    // Owned by the IO thread
+    private static FileChannel records;
+    private static FileChannel index;
+    // Index entries kept by the last compaction this session
+    private static long keptEntries = 0;
+
+    private HistoryStore() {}
+
+    /**
+     * What kind of history an entry belongs to.
+     */
+    public enum Kind {
+        CHAT,
+        COMMAND,
+        /** Messages received in the chat window; searched but never saved */
+        RECEIVED;
+
+        static Kind fromOrdinal(int ordinal) {
+            Kind[] values = values();
+            return ordinal >= 0 && ordinal < values.length ? values[ordinal] : null;
+        }
+    }
+
+    /**
+     * The saved history of one partition, oldest first.
+     */
+    public record PartitionHistory(List<Entry> chat, List<Entry> commands) {
+        public static final PartitionHistory EMPTY = new PartitionHistory(List.of(), List.of());
+    }
+
+    /**
+     * A saved entry and when it was sent, in milliseconds since the epoch.
+     */
+    public record Entry(String text, long timestamp) {}
+
+    private record Record(String partition, Kind kind, String text, long timestamp) {}
+
+    /**
+     * Keep only the newest maxEntries entries of each kind in a partition,
+     * instead of getHistoryMaxEntries(), from the next compaction on.
+     */
+    public static void setMaxEntries(String partition, int maxEntries) {
+        maxEntriesByPartition.put(partition, maxEntries);
+    }
+
+    /**
+     * Queue an entry to be saved under the given partition.
+     */
+    public static void append(String partition, Kind kind, String text) {
+        pending.add(new Record(partition, kind, text, System.currentTimeMillis()));
+        scheduleWrite();
+    }
+
+    /**
+     * Start loading a partition's history in the background.
+     * Entries queued before the call are included.
+     * @param kinds the kinds of entries to load; the others are left empty
+     * @param maxEntries the most entries of each kind to load; the newest are kept
+     * @param build turns the loaded history into what the caller wants (such as
+     *              indexed histories), on the background thread too
+     */
+    public static <T> Future<T> load(String partition, Set<Kind> kinds, int maxEntries,
+                                     Function<PartitionHistory, T> build) {
+        return IO.submit(() -> {
+            if (records == null) {
+                // Also gives a records file left without an index by a crash a new one
+                open();
+            }
+            writeQueued();
+            PartitionHistory history = read(partition, kinds, maxEntries);
+            LOGGER.debug("Loaded {} chat and {} command history entries for {}",
+                history.chat().size(), history.commands().size(), partition);
+            return build.apply(history);
+        });
+    }
+
+    /**
+     * Coalesce appends into a single pending write on the background thread.
+     */
+    private static void scheduleWrite() {
+        if (writePending.compareAndSet(false, true)) {
+            IO.execute(() -> {
+                writePending.set(false);
+                writeQueued();
+            });
+        }
+    }
+
+    private static Path getDirectory() {
+        return FabricLoader.getInstance().getConfigDir().resolve("emacsinput");
+    }
+
+    private static Path getRecordsFile() {
+        return getDirectory().resolve("history.dat");
+    }
+
+    private static Path getIndexFile() {
+        return getDirectory().resolve("history.idx");
+    }
+
+    // ========== Writing ==========
+
+    /**
+     * Write everything queued so far as one batch.
+     */
+    private static void writeQueued() {
+        if (pending.isEmpty()) {
+            return;
+        }
+        List<Record> batch = new ArrayList<>();
+        Record record;
+        while ((record = pending.poll()) != null) {
+            batch.add(record);
+        }
+        try {
+            if (records == null) {
+                open();
+            }
+            List<byte[]> encoded = new ArrayList<>(batch.size());
+            int recordBytes = 0;
+            for (Record r : batch) {
+                byte[] bytes = encode(r);
+                encoded.add(bytes);
+                recordBytes += bytes.length;
+            }
+            ByteBuffer recordBuffer = ByteBuffer.allocate(recordBytes);
+            ByteBuffer indexBuffer = ByteBuffer.allocate(batch.size() * INDEX_ENTRY_BYTES);
+            long offset = records.size();
+            for (int i = 0; i < batch.size(); i++) {
+                indexBuffer.putLong(hash(batch.get(i).partition()));
+                indexBuffer.putLong(offset + recordBuffer.position());
+                recordBuffer.put(encoded.get(i));
+            }
+            writeFully(records, recordBuffer.flip());
+            writeFully(index, indexBuffer.flip());
+            LOGGER.debug("Saved {} history entries", batch.size());
+
+            long entries = (index.size() - HEADER_BYTES) / INDEX_ENTRY_BYTES;
+            int maxEntries = ConfigHelper.getHistoryMaxEntries();
+            if (entries > COMPACT_FACTOR * Math.max(keptEntries, maxEntries) || records.size() > COMPACT_BYTES) {
+                compact(maxEntries);
+            }
+        } catch (IOException e) {
+            LOGGER.warn("Failed to save {} history entries", batch.size(), e);
+            closeQuietly();
+        }
+    }
+
+    private static byte[] encode(Record record) {
+        byte[] partition = record.partition().getBytes(StandardCharsets.UTF_8);
+        byte[] text = record.text().getBytes(StandardCharsets.UTF_8);
+        ByteBuffer buffer = ByteBuffer.allocate(RECORD_HEADER_BYTES + partition.length + text.length);
+        buffer.putInt(partition.length);
+        buffer.putInt(text.length);
+        buffer.put((byte) record.kind().ordinal());
+        buffer.putLong(record.timestamp());
+        buffer.put(partition);
+        buffer.put(text);
+        return buffer.array();
+    }
+
+    /**
+     * Open both files for appending, starting new ones if either is missing or unreadable.
+     */
+    private static void open() throws IOException {
+        Files.createDirectories(getDirectory());
+        if (!Files.exists(getIndexFile()) && hasHeader(getRecordsFile(), RECORDS_MAGIC)) {
+            // Left by a crash mid-compaction
+            LOGGER.info("Rebuilding chat history index");
+            rebuildIndex();
+        }
+        if (!hasHeader(getRecordsFile(), RECORDS_MAGIC) || !hasHeader(getIndexFile(), INDEX_MAGIC)) {
+            // Records are useless without their index and the other way round
+            LOGGER.info("Starting new chat history files in {}", getDirectory());
+            writeHeader(getRecordsFile(), RECORDS_MAGIC);
+            writeHeader(getIndexFile(), INDEX_MAGIC);
+        }
+        records = FileChannel.open(getRecordsFile(), StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        index = FileChannel.open(getIndexFile(), StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        // Drop a partial index entry left by a crash, so later entries stay aligned
+        long aligned = HEADER_BYTES + (index.size() - HEADER_BYTES) / INDEX_ENTRY_BYTES * INDEX_ENTRY_BYTES;
+        if (aligned != index.size()) {
+            index.truncate(aligned);
+        }
+    }
+
+    private static void writeHeader(Path file, int magic) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            writeFully(channel, ByteBuffer.allocate(HEADER_BYTES).putInt(magic).putInt(FILE_VERSION).flip());
+        }
+    }
+
+    private static boolean hasHeader(Path file, int magic) throws IOException {
+        if (!Files.exists(file)) {
+            return false;
+        }
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+            while (header.hasRemaining() && channel.read(header) >= 0) {
+                // Keep reading until the header is complete or the file ends
+            }
+            return !header.hasRemaining() && header.getInt(0) == magic && header.getInt(4) == FILE_VERSION;
+        }
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    // ========== Compaction ==========
+
+    /**
+     * Rewrite the records file with only the newest entries of each partition
+     * and kind, then index it again. Partitions without a limit of their own
+     * keep maxEntries.
+     */
+    private static void compact(int maxEntries) throws IOException {
+        closeQuietly();
+        List<byte[]> newestFirst = new ArrayList<>();
+        Map<String, int[]> counts = new HashMap<>();
+        long recordBytes = 0;
+        try (FileChannel recordChannel = FileChannel.open(getRecordsFile(), StandardOpenOption.READ);
+             FileChannel indexChannel = FileChannel.open(getIndexFile(), StandardOpenOption.READ)) {
+            long entries = (indexChannel.size() - HEADER_BYTES) / INDEX_ENTRY_BYTES;
+            ByteBuffer entry = ByteBuffer.allocate(INDEX_ENTRY_BYTES);
+            for (long i = entries - 1; i >= 0; i--) {
+                readFully(indexChannel, entry.clear(), HEADER_BYTES + i * INDEX_ENTRY_BYTES);
+                byte[] record = readRawRecord(recordChannel, entry.getLong(8));
+                if (record == null) {
+                    continue;
+                }
+                ByteBuffer buffer = ByteBuffer.wrap(record);
+                String partition = new String(record, RECORD_HEADER_BYTES, buffer.getInt(0), StandardCharsets.UTF_8);
+                int[] kept = counts.computeIfAbsent(partition, p -> new int[Kind.values().length]);
+                if (kept[buffer.get(8)]++ < maxEntriesByPartition.getOrDefault(partition, maxEntries)) {
+                    newestFirst.add(record);
+                    recordBytes += record.length;
+                }
+            }
+        }
+
+        Path temp = getRecordsFile().resolveSibling("history.dat.tmp");
+        try (FileChannel out = FileChannel.open(temp, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            writeFully(out, ByteBuffer.allocate(HEADER_BYTES).putInt(RECORDS_MAGIC).putInt(FILE_VERSION).flip());
+            for (int i = newestFirst.size() - 1; i >= 0; i--) {
+                writeFully(out, ByteBuffer.wrap(newestFirst.get(i)));
+            }
+        }
+        Files.delete(getIndexFile());
+        Files.move(temp, getRecordsFile(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        rebuildIndex();
+        keptEntries = newestFirst.size();
+        LOGGER.debug("Compacted chat history to {} entries ({} bytes) in {} partitions",
+            keptEntries, recordBytes, counts.size());
+        open();
+    }
+
+    /**
+     * Index the records file from scratch, walking its records in order.
+     * Stops at a record cut short by a crash.
+     */
+    private static void rebuildIndex() throws IOException {
+        Path temp = getIndexFile().resolveSibling("history.idx.tmp");
+        try (FileChannel recordChannel = FileChannel.open(getRecordsFile(), StandardOpenOption.READ);
+             FileChannel out = FileChannel.open(temp, StandardOpenOption.CREATE,
+                 StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            writeFully(out, ByteBuffer.allocate(HEADER_BYTES).putInt(INDEX_MAGIC).putInt(FILE_VERSION).flip());
+            ByteBuffer entry = ByteBuffer.allocate(INDEX_ENTRY_BYTES);
+            long offset = HEADER_BYTES;
+            byte[] record;
+            while ((record = readRawRecord(recordChannel, offset)) != null) {
+                int partitionLength = ByteBuffer.wrap(record).getInt(0);
+                entry.clear().putLong(hash(Arrays.copyOfRange(record, RECORD_HEADER_BYTES,
+                    RECORD_HEADER_BYTES + partitionLength))).putLong(offset);
+                writeFully(out, entry.flip());
+                offset += record.length;
+            }
+        }
+        Files.move(temp, getIndexFile(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Read the encoded record at an offset, header included.
+     * @return the record, or null if it is cut short or doesn't decode
+     */
+    private static byte[] readRawRecord(FileChannel channel, long offset) throws IOException {
+        long size = channel.size();
+        if (offset < HEADER_BYTES || offset > size - RECORD_HEADER_BYTES) {
+            return null;
+        }
+        ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER_BYTES);
+        readFully(channel, header, offset);
+        int partitionLength = header.getInt(0);
+        int textLength = header.getInt(4);
+        long length = (long) RECORD_HEADER_BYTES + partitionLength + textLength;
+        if (partitionLength < 0 || textLength < 0 || Kind.fromOrdinal(header.get(8)) == null
+                || length > size - offset) {
+            return null;
+        }
+        ByteBuffer record = ByteBuffer.allocate((int) length);
+        readFully(channel, record, offset);
+        return record.array();
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new EOFException("History file ended mid-read");
+            }
+        }
+        buffer.flip();
+    }
+
+    // ========== Reading ==========
+
+    /**
+     * Read the newest entries of a partition through its index entries.
+     * Reads through the channels rather than mapping the files, since a file
+     * stays mapped until the buffer is collected, and a mapped file can't be
+     * replaced by compaction on Windows.
+     */
+    private static PartitionHistory read(String partition, Set<Kind> kinds, int maxEntries) throws IOException {
+        if (!hasHeader(getRecordsFile(), RECORDS_MAGIC) || !hasHeader(getIndexFile(), INDEX_MAGIC)) {
+            return PartitionHistory.EMPTY;
+        }
+        long wanted = hash(partition);
+        byte[] partitionBytes = partition.getBytes(StandardCharsets.UTF_8);
+        List<Entry> chat = new ArrayList<>();
+        List<Entry> commands = new ArrayList<>();
+
+        try (FileChannel recordChannel = FileChannel.open(getRecordsFile(), StandardOpenOption.READ);
+             FileChannel indexChannel = FileChannel.open(getIndexFile(), StandardOpenOption.READ)) {
+            long entries = (indexChannel.size() - HEADER_BYTES) / INDEX_ENTRY_BYTES;
+            ByteBuffer block = ByteBuffer.allocate(READ_BLOCK_ENTRIES * INDEX_ENTRY_BYTES);
+            // Newest first, a block of index entries at a time, until every wanted kind is full
+            for (long end = entries; end > 0 && !isFull(kinds, chat, commands, maxEntries);
+                    end -= READ_BLOCK_ENTRIES) {
+                long start = Math.max(0, end - READ_BLOCK_ENTRIES);
+                block.clear().limit((int) (end - start) * INDEX_ENTRY_BYTES);
+                readFully(indexChannel, block, HEADER_BYTES + start * INDEX_ENTRY_BYTES);
+                for (int i = (int) (end - start) - 1;
+                        i >= 0 && !isFull(kinds, chat, commands, maxEntries); i--) {
+                    int entry = i * INDEX_ENTRY_BYTES;
+                    if (block.getLong(entry) != wanted) {
+                        continue;
+                    }
+                    Record record = readRecord(recordChannel, block.getLong(entry + 8), partitionBytes);
+                    if (record == null || !kinds.contains(record.kind())) {
+                        continue;
+                    }
+                    List<Entry> target = record.kind() == Kind.CHAT ? chat : commands;
+                    if (target.size() < maxEntries) {
+                        target.add(new Entry(record.text(), record.timestamp()));
+                    }
+                }
+            }
+        }
+        Collections.reverse(chat);
+        Collections.reverse(commands);
+        return new PartitionHistory(chat, commands);
+    }
+
+    private static boolean isFull(Set<Kind> kinds, List<Entry> chat, List<Entry> commands, int maxEntries) {
+        return (!kinds.contains(Kind.CHAT) || chat.size() >= maxEntries)
+            && (!kinds.contains(Kind.COMMAND) || commands.size() >= maxEntries);
+    }
+
+    /**
+     * Decode the record at an offset if it is complete and belongs to the partition.
+     * @return the record, or null for a hash collision or a record cut short by a crash
+     */
+    private static Record readRecord(FileChannel channel, long offset, byte[] partitionBytes) throws IOException {
+        byte[] raw = readRawRecord(channel, offset);
+        if (raw == null) {
+            return null;
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(raw);
+        int partitionLength = buffer.getInt(0);
+        if (partitionLength != partitionBytes.length || !Arrays.equals(raw, RECORD_HEADER_BYTES,
+                RECORD_HEADER_BYTES + partitionLength, partitionBytes, 0, partitionLength)) {
+            return null;
+        }
+        String text = new String(raw, RECORD_HEADER_BYTES + partitionLength, buffer.getInt(4), StandardCharsets.UTF_8);
+        return new Record(null, Kind.fromOrdinal(buffer.get(8)), text, buffer.getLong(9));
+    }
+
+    /**
+     * 64-bit FNV-1a hash of a partition name, for the index.
+     */
+    private static long hash(String partition) {
+        return hash(partition.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static long hash(byte[] partition) {
+        long hash = 0xcbf29ce484222325L;
+        for (byte b : partition) {
+            hash ^= b & 0xFF;
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    private static void closeQuietly() {
+        for (FileChannel channel : new FileChannel[] {records, index}) {
+            if (channel != null) {
+                try {
+                    channel.close();
+                } catch (IOException e) {
+                    LOGGER.debug("Failed to close history store", e);
+                }
+            }
+        }
+        records = null;
+        index = null;
+    }
+}
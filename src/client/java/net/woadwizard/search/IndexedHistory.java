@@ -0,0 +1,194 @@
+package net.woadwizard.search;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * A copy of a history list (sent chat or commands) with a trigram index over it.
+ *
+ * The copy is kept in step with the source list by {@link #sync}, which only
+ * looks at what changed: vanilla histories grow at the end and drop their
+ * oldest entries from the front, so a sync after sending a message indexes
+ * one entry and unindexes at most one. The index lives as long as the game,
+ * so opening chat never rebuilds it.
+ *
+ * Entries are indexed by a sequence number that never changes, and mapped
+ * back to their current position in the list when searching.
+ *
+ * Use counts for frecency ranking are kept up to date the same way.
+ *
+ * Each entry also keeps the time it was sent (or, for entries picked up
+ * from vanilla's lists, first seen), for merging with other histories.
+ */
+public final class IndexedHistory implements SearchableHistory {
+    private final HistoryStore.Kind kind;
+    private final List<String> entries = new ArrayList<>();
+    // Send time of each entry in entries, in milliseconds
+    private long[] times = new long[16];
+    // Entries before this position in the list have been dropped
+    private int dropped = 0;
+    // Sequence number of entries.get(dropped)
+    private long firstSeq = 0;
+    private final TrigramIndex<Long> index = new TrigramIndex<>();
+    private final Frecency frecency = new Frecency();
+    private final List<String> view = new AbstractList<>() {
+        @Override
+        public String get(int i) {
+            return IndexedHistory.this.get(i);
+        }
+
+        @Override
+        public int size() {
+            return IndexedHistory.this.size();
+        }
+    };
+
+    public IndexedHistory(HistoryStore.Kind kind) {
+        this.kind = kind;
+    }
+
+    /**
+     * Whether this history holds chat messages or commands.
+     */
+    public HistoryStore.Kind kind() {
+        return kind;
+    }
+
+    public int size() {
+        return entries.size() - dropped;
+    }
+
+    /**
+     * Get an entry by history index (0 is the oldest).
+     */
+    public String get(int i) {
+        return entries.get(dropped + i);
+    }
+
+    /**
+     * Get when an entry was sent, in milliseconds since the epoch.
+     */
+    public long time(int i) {
+        return times[dropped + i];
+    }
+
+    @Override
+    public HistoryStore.Kind source(int index) {
+        return kind;
+    }
+
+    @Override
+    public List<String> view() {
+        return view;
+    }
+
+    /**
+     * Bring the copy in line with the source list.
+     * Handles entries appended at the end and dropped from the front in O(changes);
+     * anything else (such as the source being cleared) re-indexes from scratch.
+     */
+    public void sync(List<String> source) {
+        int size = size();
+        // Find how many of our oldest entries the source has dropped
+        for (int drop = 0; drop <= size; drop++) {
+            int overlap = size - drop;
+            if (overlap > source.size()) {
+                continue;
+            }
+            if (overlap == 0 || (get(drop).equals(source.get(0)) && get(size - 1).equals(source.get(overlap - 1)))) {
+                for (int i = 0; i < drop; i++) {
+                    removeOldest();
+                }
+                long now = System.currentTimeMillis();
+                for (int i = overlap; i < source.size(); i++) {
+                    append(source.get(i), now);
+                }
+                return;
+            }
+        }
+    }
+
+    @Override
+    public int[] candidates(String query) {
+        Set<Long> seqs = index.candidates(query);
+        if (seqs == null) {
+            return null;
+        }
+        int[] indexes = new int[seqs.size()];
+        int count = 0;
+        for (long seq : seqs) {
+            indexes[count++] = (int) (seq - firstSeq);
+        }
+        Arrays.sort(indexes);
+        // Reverse into newest first
+        for (int i = 0, j = count - 1; i < j; i++, j--) {
+            int swap = indexes[i];
+            indexes[i] = indexes[j];
+            indexes[j] = swap;
+        }
+        return indexes;
+    }
+
+    /**
+     * Add an entry sent now at the end, dropping the oldest entries beyond the given size.
+     */
+    public void add(String entry, int maxSize) {
+        add(entry, System.currentTimeMillis(), maxSize);
+    }
+
+    /**
+     * Add an entry sent at the given time at the end, dropping the oldest
+     * entries beyond the given size.
+     */
+    public void add(String entry, long time, int maxSize) {
+        append(entry, time);
+        while (size() > maxSize) {
+            removeOldest();
+        }
+    }
+
+    @Override
+    public int[] byFrecency() {
+        long[] seqs = frecency.ranked();
+        int[] indexes = new int[seqs.length];
+        for (int i = 0; i < seqs.length; i++) {
+            indexes[i] = (int) (seqs[i] - firstSeq);
+        }
+        return indexes;
+    }
+
+    /**
+     * Visit every distinct entry with its frecency score, giving the history
+     * index of its latest use in place of a sequence number.
+     */
+    void forEachFrecency(Frecency.ScoreVisitor visitor) {
+        frecency.forEachScore((entry, score, lastSeq) -> visitor.visit(entry, score, lastSeq - firstSeq));
+    }
+
+    private void append(String entry, long time) {
+        frecency.added(entry, firstSeq + size());
+        index.add(firstSeq + size(), entry);
+        if (entries.size() == times.length) {
+            times = Arrays.copyOf(times, times.length * 2);
+        }
+        times[entries.size()] = time;
+        entries.add(entry);
+    }
+
+    private void removeOldest() {
+        index.remove(firstSeq, get(0));
+        frecency.removed(get(0));
+        entries.set(dropped, null);
+        dropped++;
+        firstSeq++;
+        // Compact once most of the list is dropped entries, so removal stays amortized O(1)
+        if (dropped > entries.size() / 2) {
+            System.arraycopy(times, dropped, times, 0, entries.size() - dropped);
+            entries.subList(0, dropped).clear();
+            dropped = 0;
+        }
+    }
+}
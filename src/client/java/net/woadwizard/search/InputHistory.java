@@ -0,0 +1,164 @@
+package net.woadwizard.search;
+
+import net.woadwizard.config.ConfigHelper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+/**
+ * Text submitted in fields outside chat, kept separately for each kind of
+ * field: command blocks, anvil renames, book titles and sign lines.
+ *
+ * Each category is an IndexedHistory, so it is searched through its trigram
+ * index like chat history. When history is saved (the default) each category
+ * is a partition of HistoryStore shared by all worlds, loaded and indexed in
+ * the background when a screen with that kind of field opens; until it is
+ * loaded, only entries submitted since are searched. Otherwise entries
+ * are kept until the game closes. Either way only the newest
+ * getInputHistoryMaxEntries() entries are kept in memory, and HistoryStore
+ * compacts each partition down to the same number on disk.
+ */
+public final class InputHistory {
+    private static final Logger LOGGER = LoggerFactory.getLogger(InputHistory.class);
+
+    private static final Map<Category, IndexedHistory> histories = new EnumMap<>(Category.class);
+    private static final Map<Category, Future<IndexedHistory>> loading = new EnumMap<>(Category.class);
+    // Entries submitted while a category was loading, added once it has
+    private static final Map<Category, IndexedHistory> pending = new EnumMap<>(Category.class);
+
+    private InputHistory() {}
+
+    /**
+     * A kind of field with its own input history.
+     */
+    public enum Category {
+        COMMAND_BLOCK("command_block", HistoryStore.Kind.COMMAND, true),
+        ANVIL("anvil", HistoryStore.Kind.CHAT, true),
+        BOOK_TITLE("book_title", HistoryStore.Kind.CHAT, true),
+        SIGN("sign", HistoryStore.Kind.CHAT, false);
+
+        private final String id;
+        private final HistoryStore.Kind kind;
+        private final boolean ctrlNavigates;
+
+        Category(String id, HistoryStore.Kind kind, boolean ctrlNavigates) {
+            this.id = id;
+            this.kind = kind;
+            this.ctrlNavigates = ctrlNavigates;
+        }
+
+        /**
+         * Whether C-p/C-n move through history; where they move between lines
+         * instead (signs), only M-p/M-n do.
+         */
+        public boolean ctrlNavigates() {
+            return ctrlNavigates;
+        }
+
+        private String partition() {
+            return "input:" + id;
+        }
+    }
+
+    /**
+     * Start loading a category's saved history, if it isn't loaded yet.
+     * Called when a screen with that kind of field opens.
+     */
+    public static void prefetch(Category category) {
+        if (!ConfigHelper.isHistoryPersistent()) {
+            return;
+        }
+        HistoryStore.setMaxEntries(category.partition(), ConfigHelper.getInputHistoryMaxEntries());
+        if (histories.containsKey(category) || loading.containsKey(category)) {
+            return;
+        }
+        loading.put(category, HistoryStore.load(category.partition(), EnumSet.of(category.kind),
+                ConfigHelper.getInputHistoryMaxEntries(), loaded -> {
+            IndexedHistory history = new IndexedHistory(category.kind);
+            List<HistoryStore.Entry> entries = category.kind == HistoryStore.Kind.CHAT ? loaded.chat() : loaded.commands();
+            for (HistoryStore.Entry entry : entries) {
+                history.add(entry.text(), entry.timestamp(), Integer.MAX_VALUE);
+            }
+            return history;
+        }));
+    }
+
+    /**
+     * The history of a category, oldest first. Never waits for it to load:
+     * while it is loading, this is only what was submitted since.
+     */
+    public static IndexedHistory get(Category category) {
+        IndexedHistory history = histories.get(category);
+        if (history != null) {
+            return history;
+        }
+        if (!ConfigHelper.isHistoryPersistent()) {
+            history = new IndexedHistory(category.kind);
+            histories.put(category, history);
+            return history;
+        }
+        prefetch(category);
+        Future<IndexedHistory> load = loading.get(category);
+        if (!load.isDone()) {
+            LOGGER.debug("Saved {} history is still loading", category.id);
+            return pending(category);
+        }
+        loading.remove(category);
+        try {
+            history = load.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            history = new IndexedHistory(category.kind);
+        } catch (ExecutionException e) {
+            LOGGER.warn("Failed to load saved {} history", category.id, e);
+            history = new IndexedHistory(category.kind);
+        }
+        IndexedHistory submitted = pending.remove(category);
+        if (submitted != null) {
+            int maxEntries = ConfigHelper.getInputHistoryMaxEntries();
+            for (int i = 0; i < submitted.size(); i++) {
+                history.add(submitted.get(i), submitted.time(i), maxEntries);
+            }
+        }
+        histories.put(category, history);
+        return history;
+    }
+
+    private static IndexedHistory pending(Category category) {
+        return pending.computeIfAbsent(category, c -> new IndexedHistory(c.kind));
+    }
+
+    /**
+     * Record submitted text. Like chat, an entry repeating the one before it is not added again.
+     */
+    public static void record(Category category, String text) {
+        if (text == null || text.isBlank()) {
+            return;
+        }
+        int maxEntries = ConfigHelper.getInputHistoryMaxEntries();
+        IndexedHistory history = histories.get(category);
+        if (history != null) {
+            if (history.size() > 0 && history.get(history.size() - 1).equals(text)) {
+                return;
+            }
+            history.add(text, maxEntries);
+        } else if (!ConfigHelper.isHistoryPersistent()) {
+            get(category).add(text, maxEntries);
+        } else {
+            // Still loading (or not started): keep it for the search until the load is in
+            IndexedHistory submitted = pending(category);
+            if (submitted.size() == 0 || !submitted.get(submitted.size() - 1).equals(text)) {
+                submitted.add(text, maxEntries);
+            }
+        }
+        if (ConfigHelper.isHistoryPersistent()) {
+            HistoryStore.append(category.partition(), category.kind, text);
+        }
+    }
+}
@@ -0,0 +1,315 @@
+package net.woadwizard.search;
+
+import net.woadwizard.KillRing;
+import net.woadwizard.UndoManager;
+import net.woadwizard.config.Command;
+import net.woadwizard.emacs.EmacsKeyHandler;
+import net.woadwizard.emacs.TextFieldAdapter;
+import net.minecraft.client.Minecraft;
+import net.minecraft.client.gui.Font;
+import net.minecraft.client.gui.GuiGraphics;
+import net.minecraft.client.gui.screens.Screen;
+import org.lwjgl.glfw.GLFW;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+
+/**
+ * History search (C-r/C-s) and history navigation (C-p/C-n, or M-p/M-n)
+ * for fields outside chat that have an InputHistory: command blocks, anvil
+ * renames, book titles and sign lines.
+ *
+ * Works on any TextFieldAdapter bound to a category with bind, so the same
+ * code serves EditBox and TextFieldHelper. Searching uses a HistorySearch
+ * over the category's history, with the same keys as in chat: typing extends
+ * the query, C-r/C-s cycle, M-z/M-r/M-s switch modes, Enter/Tab/C-j accept,
+ * Escape/C-g put the field back. The search prompt is drawn at the bottom of
+ * the screen, like the Emacs echo area.
+ *
+ * Only one field is searched or navigated at a time, so the state is static,
+ * like KillRingBrowser's.
+ */
+public final class InputHistorySearch {
+    private static final Logger LOGGER = LoggerFactory.getLogger(InputHistorySearch.class);
+    private static final int PADDING = 2;
+    private static final int BACKGROUND_COLOR = 0xC0000000;
+    private static final int TEXT_COLOR = 0xFFFFFFFF;
+
+    private static final HistorySearch search = new HistorySearch();
+    private static TextFieldAdapter target = null;
+    private static Screen screen = null;
+
+    // Prompt text for promptVersion of the search state
+    private static String prompt = "";
+    private static int promptVersion = -1;
+
+    // C-p/C-n: the field being navigated, its position in history (size = the draft),
+    // the text it had before navigating, and the text last put in it
+    private static TextFieldAdapter navTarget = null;
+    private static int navPos = 0;
+    private static String navDraft = "";
+    private static String navText = null;
+
+    private InputHistorySearch() {}
+
+    /**
+     * Give a field the input history of a category, and start loading it.
+     */
+    public static void bind(TextFieldAdapter field, InputHistory.Category category) {
+        field.getState().setInputHistory(category);
+        InputHistory.prefetch(category);
+    }
+
+    /**
+     * Check if a search is open on the current screen.
+     * Ends it, without touching the field, if the screen it was started on is gone.
+     */
+    public static boolean isSearching() {
+        if (target != null && screen != Minecraft.getInstance().screen) {
+            search.exit();
+            target = null;
+            screen = null;
+        }
+        return target != null;
+    }
+
+    /**
+     * Cancel the search, putting the field back, if one is open. For screens
+     * that act on Escape (closing themselves) before the field sees the key,
+     * and for screens closing in the middle of a search.
+     * @return true if a search was cancelled
+     */
+    public static boolean cancelIfSearching() {
+        if (!isSearching()) {
+            return false;
+        }
+        cancel();
+        return true;
+    }
+
+    /**
+     * Handle a key press in a field.
+     * @return true if the key was consumed
+     */
+    public static boolean handleKey(TextFieldAdapter field, int keyCode, int modifiers) {
+        // Keys that accept a match go on to act on the field, so C-p continues from the match
+        if (isSearching() && handleSearchKey(keyCode, modifiers)) {
+            KillRing.endKillSequence();
+            return true;
+        }
+        InputHistory.Category category = field.getState().getInputHistory();
+        if (category == null) {
+            return false;
+        }
+        boolean ctrlHeld = (modifiers & GLFW.GLFW_MOD_CONTROL) != 0;
+        boolean altHeld = (modifiers & GLFW.GLFW_MOD_ALT) != 0;
+        boolean navigates = (ctrlHeld && !altHeld && category.ctrlNavigates()) || (altHeld && !ctrlHeld);
+
+        switch (keyCode) {
+            case GLFW.GLFW_KEY_R -> {
+                if (ctrlHeld && !altHeld && Command.CTRL_R.isEnabled()) {
+                    LOGGER.debug("C-r: entering {} history search", category);
+                    enter(field, category);
+                    KillRing.endKillSequence();
+                    return true;
+                }
+            }
+            case GLFW.GLFW_KEY_S -> {
+                if (ctrlHeld && !altHeld && Command.CTRL_S.isEnabled()) {
+                    LOGGER.debug("C-s: entering {} history search", category);
+                    enter(field, category);
+                    KillRing.endKillSequence();
+                    return true;
+                }
+            }
+            case GLFW.GLFW_KEY_P -> {
+                if (navigates && Command.CTRL_P.isEnabled()) {
+                    LOGGER.debug("Previous {} history", category);
+                    navigate(field, category, -1);
+                    KillRing.endKillSequence();
+                    return true;
+                }
+            }
+            case GLFW.GLFW_KEY_N -> {
+                if (navigates && Command.CTRL_N.isEnabled()) {
+                    LOGGER.debug("Next {} history", category);
+                    navigate(field, category, 1);
+                    KillRing.endKillSequence();
+                    return true;
+                }
+            }
+            default -> {
+                // Everything else is ordinary editing
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Handle a typed character while searching.
+     * @return true if the character was consumed
+     */
+    public static boolean handleChar(int codepoint, int modifiers) {
+        if (!isSearching()) {
+            return false;
+        }
+        // Characters from modified keys (such as the z of M-z) are not part of the query
+        if (!EmacsKeyHandler.shouldBlockChar(modifiers)) {
+            for (char c : Character.toChars(codepoint)) {
+                search.appendToQuery(c);
+            }
+            sync();
+        }
+        return true;
+    }
+
+    private static boolean handleSearchKey(int keyCode, int modifiers) {
+        boolean ctrlHeld = (modifiers & GLFW.GLFW_MOD_CONTROL) != 0;
+        boolean altHeld = (modifiers & GLFW.GLFW_MOD_ALT) != 0;
+
+        switch (keyCode) {
+            case GLFW.GLFW_KEY_ESCAPE -> cancel();
+            case GLFW.GLFW_KEY_ENTER, GLFW.GLFW_KEY_KP_ENTER, GLFW.GLFW_KEY_TAB -> accept();
+            case GLFW.GLFW_KEY_BACKSPACE -> {
+                search.deleteFromQuery();
+                sync();
+            }
+            case GLFW.GLFW_KEY_G -> { if (ctrlHeld) cancel(); }
+            case GLFW.GLFW_KEY_J -> { if (ctrlHeld) accept(); }
+            case GLFW.GLFW_KEY_R -> {
+                if (altHeld && !ctrlHeld) {
+                    search.toggleMode(SearchMode.REGEX);
+                } else if (ctrlHeld && search.getState().query().isEmpty() && search.hasLastQuery()) {
+                    search.reuseLastQuery();
+                } else if (ctrlHeld) {
+                    search.cyclePrevious();
+                }
+                sync();
+            }
+            case GLFW.GLFW_KEY_S -> {
+                if (altHeld && !ctrlHeld) {
+                    search.toggleMode(SearchMode.FRECENT);
+                } else if (ctrlHeld) {
+                    search.cycleNext();
+                }
+                sync();
+            }
+            case GLFW.GLFW_KEY_Z -> {
+                if (altHeld) {
+                    search.toggleMode(SearchMode.FUZZY);
+                    sync();
+                }
+            }
+            // Navigation and editing keys: accept the match, then let the key act on it
+            case GLFW.GLFW_KEY_LEFT, GLFW.GLFW_KEY_RIGHT, GLFW.GLFW_KEY_UP, GLFW.GLFW_KEY_DOWN,
+                 GLFW.GLFW_KEY_HOME, GLFW.GLFW_KEY_END -> {
+                accept();
+                return false;
+            }
+            case GLFW.GLFW_KEY_F, GLFW.GLFW_KEY_B, GLFW.GLFW_KEY_A, GLFW.GLFW_KEY_E,
+                 GLFW.GLFW_KEY_K, GLFW.GLFW_KEY_U, GLFW.GLFW_KEY_W, GLFW.GLFW_KEY_D,
+                 GLFW.GLFW_KEY_Y, GLFW.GLFW_KEY_T, GLFW.GLFW_KEY_P, GLFW.GLFW_KEY_N -> {
+                if (ctrlHeld || altHeld) {
+                    accept();
+                    return false;
+                }
+            }
+            default -> {
+                // Printable keys arrive through handleChar
+            }
+        }
+        // Swallow everything else so no edits reach the field while it shows a match
+        return true;
+    }
+
+    private static void enter(TextFieldAdapter field, InputHistory.Category category) {
+        UndoManager.recordState(field.getWidget(), field.getState(), field.getText(), field.getCursor());
+        target = field;
+        screen = Minecraft.getInstance().screen;
+        search.enter(field.getText(), InputHistory.get(category));
+        sync();
+    }
+
+    /**
+     * Keep the selected match in the field, and continue C-p/C-n from it.
+     */
+    private static void accept() {
+        TextFieldAdapter field = target;
+        SearchState state = search.getState();
+        close();
+        if (state.selectedMatch() != null) {
+            navTarget = field;
+            navPos = state.historyIndex();
+            navDraft = state.originalInput();
+            navText = state.displayText();
+        }
+    }
+
+    private static void cancel() {
+        TextFieldAdapter field = target;
+        String original = search.getState().originalInput();
+        close();
+        field.setText(original);
+        field.moveToEnd(false);
+    }
+
+    private static void close() {
+        search.exit();
+        target = null;
+        screen = null;
+    }
+
+    private static void sync() {
+        SearchState state = search.getState();
+        target.setText(state.displayText());
+        target.setCursor(state.cursorPosition());
+        target.setSelectionStart(state.cursorPosition());
+    }
+
+    private static void navigate(TextFieldAdapter field, InputHistory.Category category, int direction) {
+        List<String> history = InputHistory.get(category).view();
+        // Start over from the end if the field was edited, or another line or field is being edited
+        if (field != navTarget || !field.getText().equals(navText) || navPos > history.size()) {
+            navTarget = field;
+            navPos = history.size();
+            navDraft = field.getText();
+        }
+        int pos = Math.max(0, Math.min(history.size(), navPos + direction));
+        if (pos == navPos) {
+            return;
+        }
+        UndoManager.recordState(field.getWidget(), field.getState(), field.getText(), field.getCursor());
+        navPos = pos;
+        navText = pos == history.size() ? navDraft : history.get(pos);
+        field.setText(navText);
+        field.moveToEnd(false);
+    }
+
+    // ========== Rendering ==========
+
+    /**
+     * Draw the search prompt at the bottom of the current screen, if searching.
+     */
+    public static void render(GuiGraphics graphics) {
+        if (!isSearching()) {
+            return;
+        }
+        // Show matches from a background search as they come in
+        if (search.applyBackgroundResults()) {
+            sync();
+        }
+        SearchState state = search.getState();
+        if (state.version() != promptVersion) {
+            String type = (state.hasMatches() || state.searching() || state.query().isEmpty())
+                    ? state.mode().getIndicatorPrefix() + "bck-i-search"
+                    : "failing " + state.mode().getIndicatorPrefix() + "bck-i-search";
+            prompt = type + ": " + state.query();
+            promptVersion = state.version();
+        }
+        Font font = Minecraft.getInstance().font;
+        int y = graphics.guiHeight() - font.lineHeight - 2 * PADDING;
+        graphics.fill(0, y, font.width(prompt) + 2 * PADDING, graphics.guiHeight(), BACKGROUND_COLOR);
+        graphics.drawString(font, prompt, PADDING, y + PADDING, TEXT_COLOR, false);
+    }
+}
@@ -0,0 +1,182 @@
+package net.woadwizard.search;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Sent chat and commands searched as one history, in the order they were sent.
+ *
+ * The histories are not copied into one list: a k-way merge by timestamp
+ * records, for each position in the merged order, which history the entry
+ * is in and where, and the view reads through to it. Trigram candidates
+ * from each history are mapped to merged positions and merged the same way.
+ *
+ * Vanilla also records every command in the recent chat, so chat entries
+ * starting with "/" are left out in favour of the command history's copy.
+ * Commands always show with their slash, even if they were saved without one.
+ *
+ * The merge is taken when a search starts and does not follow later changes.
+ */
+public final class MergedHistory implements SearchableHistory {
+    private final IndexedHistory[] sources;
+    // For each merged position, the history the entry is in and its index there
+    private final int[] sourceOf;
+    private final int[] indexIn;
+    // For each history, the merged position of each of its entries (-1 if left out)
+    private final int[][] positionOf;
+    private final List<String> view = new AbstractList<>() {
+        @Override
+        public String get(int i) {
+            return MergedHistory.this.get(i);
+        }
+
+        @Override
+        public int size() {
+            return sourceOf.length;
+        }
+    };
+
+    public MergedHistory(IndexedHistory... sources) {
+        this.sources = sources;
+        positionOf = new int[sources.length][];
+        int total = 0;
+        for (int s = 0; s < sources.length; s++) {
+            positionOf[s] = new int[sources[s].size()];
+            Arrays.fill(positionOf[s], -1);
+            total += sources[s].size();
+        }
+        int[] sourceOf = new int[total];
+        int[] indexIn = new int[total];
+        int[] next = new int[sources.length];
+        int size = 0;
+        while (true) {
+            // The oldest unmerged entry among the histories; ties go to the earlier history
+            int oldest = -1;
+            for (int s = 0; s < sources.length; s++) {
+                next[s] = skipLeftOut(s, next[s]);
+                if (next[s] < sources[s].size()
+                        && (oldest < 0 || sources[s].time(next[s]) < sources[oldest].time(next[oldest]))) {
+                    oldest = s;
+                }
+            }
+            if (oldest < 0) {
+                break;
+            }
+            sourceOf[size] = oldest;
+            indexIn[size] = next[oldest];
+            positionOf[oldest][next[oldest]] = size;
+            next[oldest]++;
+            size++;
+        }
+        this.sourceOf = Arrays.copyOf(sourceOf, size);
+        this.indexIn = Arrays.copyOf(indexIn, size);
+    }
+
+    private int skipLeftOut(int source, int index) {
+        IndexedHistory history = sources[source];
+        if (history.kind() == HistoryStore.Kind.CHAT) {
+            while (index < history.size() && history.get(index).startsWith("/")) {
+                index++;
+            }
+        }
+        return index;
+    }
+
+    public int size() {
+        return sourceOf.length;
+    }
+
+    /**
+     * Get an entry by merged index (0 is the oldest).
+     */
+    public String get(int i) {
+        IndexedHistory history = sources[sourceOf[i]];
+        String entry = history.get(indexIn[i]);
+        if (history.kind() == HistoryStore.Kind.COMMAND && !entry.startsWith("/")) {
+            return "/" + entry;
+        }
+        return entry;
+    }
+
+    @Override
+    public List<String> view() {
+        return view;
+    }
+
+    @Override
+    public HistoryStore.Kind source(int index) {
+        return sources[sourceOf[index]].kind();
+    }
+
+    @Override
+    public int[] candidates(String query) {
+        int[][] mapped = new int[sources.length][];
+        int total = 0;
+        for (int s = 0; s < sources.length; s++) {
+            int[] found = sources[s].candidates(query);
+            if (found == null) {
+                return null;
+            }
+            // Still newest first, as merged positions keep each history's order
+            int[] positions = new int[found.length];
+            int count = 0;
+            for (int index : found) {
+                if (index < positionOf[s].length && positionOf[s][index] >= 0) {
+                    positions[count++] = positionOf[s][index];
+                }
+            }
+            mapped[s] = Arrays.copyOf(positions, count);
+            total += count;
+        }
+
+        int[] merged = new int[total];
+        int[] next = new int[sources.length];
+        for (int i = 0; i < total; i++) {
+            int newest = -1;
+            for (int s = 0; s < sources.length; s++) {
+                if (next[s] < mapped[s].length
+                        && (newest < 0 || mapped[s][next[s]] > mapped[newest][next[newest]])) {
+                    newest = s;
+                }
+            }
+            merged[i] = mapped[newest][next[newest]++];
+        }
+        return merged;
+    }
+
+    /**
+     * Combines the frecency each history keeps up to date, rather than
+     * ranking the merged view from scratch. An entry in both histories scores
+     * the sum of its two scores.
+     */
+    @Override
+    public int[] byFrecency() {
+        // Entry as shown -> {summed score, merged position of its latest use}
+        Map<String, long[]> combined = new HashMap<>();
+        for (int s = 0; s < sources.length; s++) {
+            int[] positions = positionOf[s];
+            sources[s].forEachFrecency((entry, score, lastIndex) -> {
+                // Left out of the merge (commands echoed into chat), or added since it was taken
+                if (lastIndex >= positions.length || positions[(int) lastIndex] < 0) {
+                    return;
+                }
+                int position = positions[(int) lastIndex];
+                long[] totals = combined.computeIfAbsent(get(position), k -> new long[] {0, -1});
+                totals[0] += score;
+                totals[1] = Math.max(totals[1], position);
+            });
+        }
+        List<long[]> ranked = new ArrayList<>(combined.values());
+        // Equal scores go to the more recently used entry, as in Frecency
+        ranked.sort((a, b) -> a[0] != b[0] ? Long.compare(b[0], a[0]) : Long.compare(b[1], a[1]));
+        int[] indexes = new int[ranked.size()];
+        for (int i = 0; i < indexes.length; i++) {
+            indexes[i] = (int) ranked.get(i)[1];
+        }
+        return indexes;
+    }
+}
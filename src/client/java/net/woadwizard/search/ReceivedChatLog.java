@@ -0,0 +1,92 @@
+package net.woadwizard.search;
+
+import net.woadwizard.config.ConfigHelper;
+import net.minecraft.network.chat.Component;
+
+import java.util.ArrayDeque;
+import java.util.List;
+
+/**
+ * Messages shown in the chat window, searchable with M-R.
+ *
+ * Each message is flattened to plain text once, when it arrives, and added
+ * to an IndexedHistory, so its trigrams are indexed incrementally and queries
+ * never walk ChatComponent's lines. The log keeps only the newest
+ * getReceivedChatMaxEntries() messages, dropping the oldest as new ones come in.
+ *
+ * HistorySearch holds on to history indexes while it searches, so messages
+ * arriving during a search are held back and added when it ends (see hold
+ * and release); the held messages are bounded the same way.
+ */
+public final class ReceivedChatLog {
+    private static final IndexedHistory log = new IndexedHistory(HistoryStore.Kind.RECEIVED);
+    // Messages that arrived while held, oldest first
+    private static final ArrayDeque<HistoryStore.Entry> held = new ArrayDeque<>();
+    private static boolean holding = false;
+    // Cleared while held: empty the log on release
+    private static boolean clearOnRelease = false;
+
+    private ReceivedChatLog() {}
+
+    /**
+     * Record a message added to the chat window.
+     */
+    public static void onMessage(Component message) {
+        String text = flatten(message);
+        if (text.isEmpty()) {
+            return;
+        }
+        int maxEntries = ConfigHelper.getReceivedChatMaxEntries();
+        if (holding) {
+            held.addLast(new HistoryStore.Entry(text, System.currentTimeMillis()));
+            while (held.size() > maxEntries) {
+                held.removeFirst();
+            }
+            return;
+        }
+        log.add(text, maxEntries);
+    }
+
+    /**
+     * Forget all messages, as when the chat window is cleared.
+     */
+    public static void clear() {
+        held.clear();
+        if (holding) {
+            clearOnRelease = true;
+            return;
+        }
+        log.sync(List.of());
+    }
+
+    /**
+     * Get the log for searching, holding back new messages until release.
+     */
+    public static IndexedHistory hold() {
+        holding = true;
+        return log;
+    }
+
+    /**
+     * Add the messages that arrived since hold.
+     */
+    public static void release() {
+        holding = false;
+        if (clearOnRelease) {
+            clearOnRelease = false;
+            log.sync(List.of());
+        }
+        int maxEntries = ConfigHelper.getReceivedChatMaxEntries();
+        while (!held.isEmpty()) {
+            HistoryStore.Entry entry = held.removeFirst();
+            log.add(entry.text(), entry.timestamp(), maxEntries);
+        }
+    }
+
+    /**
+     * Plain text of a message on one line, as it would be typed.
+     */
+    private static String flatten(Component message) {
+        return message.getString().replace('\n', ' ').strip();
+    }
+}
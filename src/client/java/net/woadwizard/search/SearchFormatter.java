@@ -11,48 +11,86 @@ import java.util.List;
 
 /**
  * Formatter for EditBox that underlines the matched query during search mode.
+ * Fuzzy matches underline each matched character rather than one run.
  * The search indicator is rendered separately by ChatScreenMixin.
+ *
+ * EditBox formats the text before and after the cursor separately every
+ * frame. Both results are kept until the search state's version changes,
+ * so frames where nothing changed reuse them instead of rebuilding.
  */
 public class SearchFormatter implements TextFormatter {
 
     private final EditBox editBox;
 
+    // Formatted fragments for cachedVersion, one slot per side of the cursor
+    private int cachedVersion = -1;
+    private final String[] cachedText = new String[2];
+    private final int[] cachedCursorPos = new int[2];
+    private final FormattedCharSequence[] cachedResult = new FormattedCharSequence[2];
+    private int nextSlot = 0;
+
     public SearchFormatter(EditBox editBox) {
         this.editBox = editBox;
     }
 
     @Override
     public FormattedCharSequence format(String text, int cursorPos) {
-        SearchState state = HistorySearch.getCurrentState();
-        if (!state.active() || state.selectedMatch() == null || state.query().isEmpty()) {
+        if (!HistorySearch.isSearchActive()) {
             return null;  // Let other formatters handle it
         }
+        SearchState state = HistorySearch.getCurrentState();
+        if (state.selectedMatch() == null || state.query().isEmpty()) {
+            return null;
+        }
+
+        if (state.version() != cachedVersion) {
+            cachedVersion = state.version();
+            cachedText[0] = cachedText[1] = null;
+        }
+        for (int slot = 0; slot < cachedText.length; slot++) {
+            if (cursorPos == cachedCursorPos[slot] && text.equals(cachedText[slot])) {
+                return cachedResult[slot];
+            }
+        }
+
+        FormattedCharSequence result = build(state, text, cursorPos);
+        cachedText[nextSlot] = text;
+        cachedCursorPos[nextSlot] = cursorPos;
+        cachedResult[nextSlot] = result;
+        nextSlot = (nextSlot + 1) % cachedText.length;
+        return result;
+    }
 
+    private FormattedCharSequence build(SearchState state, String text, int cursorPos) {
         // Get base formatting from other formatters (preserves syntax highlighting)
         FormattedCharSequence base = getBaseFormatting(text, cursorPos);
 
-        // Calculate underline range for this text fragment
-        int queryPos = state.selectedMatch().queryPosition();
-        int queryLen = state.query().length();
-
         // Determine where this fragment starts in the full text
         int fragmentStart = getFragmentStart(text);
 
-        // Check if the match falls within this fragment
-        int matchStart = queryPos - fragmentStart;
-        int matchEnd = matchStart + queryLen;
-
-        if (matchStart < text.length() && matchEnd > 0) {
-            // Clamp to fragment bounds
-            int underlineStart = Math.max(0, matchStart);
-            int underlineEnd = Math.min(text.length(), matchEnd);
-
-            if (underlineStart < underlineEnd) {
-                return new UnderlineWrapper(base, underlineStart, underlineEnd);
+        // Mark the matched characters that fall within this fragment
+        HistorySearch.Match match = state.selectedMatch();
+        boolean[] underlined = new boolean[text.length()];
+        boolean any = false;
+        if (match.highlights() != null) {
+            for (int position : match.highlights()) {
+                int offset = position - fragmentStart;
+                if (offset >= 0 && offset < underlined.length) {
+                    underlined[offset] = true;
+                    any = true;
+                }
+            }
+        } else {
+            // Clamp the query's run to fragment bounds
+            int underlineStart = Math.max(0, match.queryPosition() - fragmentStart);
+            int underlineEnd = Math.min(text.length(), match.queryPosition() - fragmentStart + state.query().length());
+            for (int i = underlineStart; i < underlineEnd; i++) {
+                underlined[i] = true;
+                any = true;
             }
         }
 
-        return base;
+        return any ? new UnderlineWrapper(base, underlined) : base;
     }
 
     /**
@@ -93,29 +131,40 @@ public class SearchFormatter implements TextFormatter {
     }
 
     /**
-     * Wrapper that adds underline style to characters in a specific range.
+     * The base sequence with underline added to the marked characters,
+     * flattened once so drawing it each frame allocates nothing.
      */
     private static class UnderlineWrapper implements FormattedCharSequence {
-        private final FormattedCharSequence wrapped;
-        private final int start;
-        private final int end;
-
-        UnderlineWrapper(FormattedCharSequence wrapped, int start, int end) {
-            this.wrapped = wrapped;
-            this.start = start;
-            this.end = end;
+        private final int[] indexes;
+        private final Style[] styles;
+        private final int[] codePoints;
+        private int length = 0;
+
+        UnderlineWrapper(FormattedCharSequence base, boolean[] underlined) {
+            indexes = new int[underlined.length];
+            styles = new Style[underlined.length];
+            codePoints = new int[underlined.length];
+            base.accept((index, style, codePoint) -> {
+                if (length == codePoints.length) {
+                    return false;
+                }
+                boolean marked = length < underlined.length && underlined[length];
+                indexes[length] = index;
+                styles[length] = marked ? style.withUnderlined(true) : style;
+                codePoints[length] = codePoint;
+                length++;
+                return true;
+            });
         }
 
         @Override
         public boolean accept(FormattedCharSink sink) {
-            int[] pos = {0};
-            return wrapped.accept((index, style, codePoint) -> {
-                Style effectiveStyle = (pos[0] >= start && pos[0] < end)
-                        ? style.withUnderlined(true)
-                        : style;
-                pos[0]++;
-                return sink.accept(index, effectiveStyle, codePoint);
-            });
+            for (int i = 0; i < length; i++) {
+                if (!sink.accept(indexes[i], styles[i], codePoints[i])) {
+                    return false;
+                }
+            }
+            return true;
         }
     }
 }
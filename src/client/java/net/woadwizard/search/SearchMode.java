@@ -0,0 +1,28 @@
+package net.woadwizard.search;
+
+/**
+ * How history search matches the query against history entries.
+ */
+public enum SearchMode {
+    /** Entries containing the query (case-insensitive unless configured otherwise) */
+    SUBSTRING(""),
+    /** Entries containing the query's characters in order, best scored first (M-z) */
+    FUZZY("fuzzy "),
+    /** Entries matching the query as a regular expression, newest first (M-r) */
+    REGEX("regexp "),
+    /** Entries containing the query, each distinct entry once, most frecent first (M-s) */
+    FRECENT("frecent ");
+
+    private final String indicatorPrefix;
+
+    SearchMode(String indicatorPrefix) {
+        this.indicatorPrefix = indicatorPrefix;
+    }
+
+    /**
+     * Text put before "bck-i-search" in the search indicator.
+     */
+    public String getIndicatorPrefix() {
+        return indicatorPrefix;
+    }
+}
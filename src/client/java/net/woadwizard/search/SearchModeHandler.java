@@ -82,6 +82,12 @@ public final class SearchModeHandler {
                 }
             }
             case GLFW.GLFW_KEY_R -> {
+                if (altHeld && !ctrlHeld) {
+                    LOGGER.debug("M-r: toggling regex search");
+                    search.toggleMode(SearchMode.REGEX);
+                    SearchController.syncToEditBox(editBox, search.getState());
+                    return Result.HANDLED;
+                }
                 if (ctrlHeld) {
                     if (search.getState().query().isEmpty() && search.hasLastQuery()) {
                         LOGGER.debug("C-r: reusing last search query");
@@ -95,6 +101,12 @@ public final class SearchModeHandler {
                 }
             }
             case GLFW.GLFW_KEY_S -> {
+                if (altHeld && !ctrlHeld) {
+                    LOGGER.debug("M-s: toggling frecency ranking");
+                    search.toggleMode(SearchMode.FRECENT);
+                    SearchController.syncToEditBox(editBox, search.getState());
+                    return Result.HANDLED;
+                }
                 if (ctrlHeld) {
                     LOGGER.debug("C-s: cycling to next match");
                     search.cycleNext();
@@ -102,6 +114,14 @@ public final class SearchModeHandler {
                     return Result.HANDLED;
                 }
             }
+            case GLFW.GLFW_KEY_Z -> {
+                if (altHeld) {
+                    LOGGER.debug("M-z: toggling fuzzy search");
+                    search.toggleMode(SearchMode.FUZZY);
+                    SearchController.syncToEditBox(editBox, search.getState());
+                    return Result.HANDLED;
+                }
+            }
             // Navigation keys: accept match, then let navigation proceed
             case GLFW.GLFW_KEY_LEFT, GLFW.GLFW_KEY_RIGHT, GLFW.GLFW_KEY_HOME, GLFW.GLFW_KEY_END -> {
                 LOGGER.debug("Navigation key: accepting and exiting search");
@@ -0,0 +1,145 @@
+package net.woadwizard.search;
+
+import net.minecraft.client.Minecraft;
+import net.minecraft.client.gui.Font;
+import net.minecraft.client.gui.GuiGraphics;
+import net.minecraft.network.chat.Style;
+import net.minecraft.util.FormattedCharSequence;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * List of history search matches drawn above the chat input while searching.
+ *
+ * Shows up to VISIBLE_ROWS matches, the first (newest or best) at the bottom
+ * next to the input, and scrolls to keep the selected match in view as C-r
+ * and C-s move through them. Rows are formatted - cut to the panel width,
+ * with the matched characters highlighted - only when the search's version
+ * changes; other frames draw the cached rows. Only the visible matches are
+ * ever materialized, so a frame costs the same with ten matches or ten
+ * thousand.
+ */
+public class SearchResultsOverlay {
+    private static final int VISIBLE_ROWS = 8;
+    private static final int PADDING = 2;
+    // Characters kept before a match that would otherwise be cut off
+    private static final int CONTEXT_CHARS = 8;
+    private static final String ELLIPSIS = "...";
+    private static final int BACKGROUND_COLOR = 0xC0000000;
+    private static final int SELECTED_COLOR = 0xFF404040;
+    private static final int TEXT_COLOR = 0xFFE0E0E0;
+    private static final int META_COLOR = 0xFFA0A0A0;
+    private static final int HIGHLIGHT_RGB = 0xFFFF55;
+    private static final Style HIGHLIGHT_STYLE = Style.EMPTY.withColor(HIGHLIGHT_RGB).withUnderlined(true);
+
+    private int cachedVersion = -1;
+    private int cachedWidth = -1;
+    private int scroll = 0;
+    private List<FormattedCharSequence> rows = List.of();
+    private int selectedRow = -1;
+    private String header = "";
+
+    /**
+     * Draw the overlay for a search, if it has matches.
+     * @param bottom y coordinate the overlay's bottom edge sits on
+     */
+    public void render(GuiGraphics graphics, HistorySearch search, int x, int bottom, int width) {
+        if (search.getVersion() != cachedVersion || width != cachedWidth) {
+            rebuild(search, width);
+        }
+        if (rows.isEmpty()) {
+            return;
+        }
+        Font font = Minecraft.getInstance().font;
+        int rowHeight = font.lineHeight + 2;
+        int top = bottom - (rows.size() + 1) * rowHeight - 2 * PADDING;
+        graphics.fill(x, top, x + width, bottom, BACKGROUND_COLOR);
+        graphics.drawString(font, header, x + PADDING, top + PADDING + 1, META_COLOR, false);
+
+        for (int i = 0; i < rows.size(); i++) {
+            int y = bottom - PADDING - (i + 1) * rowHeight;
+            if (i == selectedRow) {
+                graphics.fill(x, y, x + width, y + rowHeight, SELECTED_COLOR);
+            }
+            graphics.drawString(font, rows.get(i), x + PADDING, y + 1, TEXT_COLOR, false);
+        }
+    }
+
+    /**
+     * Format the rows around the selected match.
+     */
+    private void rebuild(HistorySearch search, int width) {
+        cachedVersion = search.getVersion();
+        cachedWidth = width;
+        int count = search.getMatchCount();
+        if (!search.isActive() || count == 0) {
+            rows = List.of();
+            return;
+        }
+        int selected = Math.max(0, search.getSelectedIndex());
+        if (selected < scroll) {
+            scroll = selected;
+        } else if (selected >= scroll + VISIBLE_ROWS) {
+            scroll = selected - VISIBLE_ROWS + 1;
+        }
+        scroll = Math.max(0, Math.min(scroll, count - 1));
+
+        SearchState state = search.getState();
+        Font font = Minecraft.getInstance().font;
+        int textWidth = width - 2 * PADDING;
+        List<FormattedCharSequence> formatted = new ArrayList<>(VISIBLE_ROWS);
+        for (HistorySearch.Match match : search.getMatches(scroll, VISIBLE_ROWS)) {
+            formatted.add(formatRow(font, match, state.query().length(), textWidth));
+        }
+        rows = formatted;
+        selectedRow = search.getSelectedIndex() - scroll;
+        // Counts from regex and background searches grow as more matches are found
+        header = (search.getSelectedIndex() + 1) + "/" + search.getMatchCount() + (state.searching() ? "+" : "");
+    }
+
+    /**
+     * One match on one line, highlighted, starting just before the match if
+     * it would otherwise be cut off.
+     */
+    private static FormattedCharSequence formatRow(Font font, HistorySearch.Match match, int queryLength, int width) {
+        String text = match.text().replace('\n', ' ');
+        boolean[] highlighted = new boolean[text.length()];
+        if (match.highlights() != null) {
+            for (int position : match.highlights()) {
+                if (position < highlighted.length) {
+                    highlighted[position] = true;
+                }
+            }
+        } else {
+            for (int i = match.queryPosition(); i < Math.min(text.length(), match.queryPosition() + queryLength); i++) {
+                highlighted[i] = true;
+            }
+        }
+
+        int start = 0;
+        int first = Math.max(0, match.queryPosition());
+        if (font.width(text.substring(0, Math.min(first, text.length()))) > width / 2) {
+            start = Math.max(0, first - CONTEXT_CHARS);
+        }
+        String prefix = start > 0 ? ELLIPSIS : "";
+        String visible = font.plainSubstrByWidth(prefix + text.substring(start), width);
+
+        // One segment per run of highlighted or plain characters
+        List<FormattedCharSequence> segments = new ArrayList<>();
+        int runStart = 0;
+        for (int i = 1; i <= visible.length(); i++) {
+            if (i == visible.length() || isHighlighted(highlighted, i, prefix, start) != isHighlighted(highlighted, runStart, prefix, start)) {
+                Style style = isHighlighted(highlighted, runStart, prefix, start) ? HIGHLIGHT_STYLE : Style.EMPTY;
+                segments.add(FormattedCharSequence.forward(visible.substring(runStart, i), style));
+                runStart = i;
+            }
+        }
+        return FormattedCharSequence.composite(segments);
+    }
+
+    private static boolean isHighlighted(boolean[] highlighted, int visibleIndex, String prefix, int start) {
+        int index = visibleIndex - prefix.length() + start;
+        return visibleIndex >= prefix.length() && index < highlighted.length && highlighted[index];
+    }
+}
@@ -10,10 +10,13 @@ public record SearchState(
     String originalInput,
     HistorySearch.Match selectedMatch,  // null if no matches
     boolean hasMatches,
-    int historyIndex                    // for syncing with ChatScreen's historyPos
+    int historyIndex,                   // for syncing with ChatScreen's historyPos
+    SearchMode mode,
+    boolean searching,                  // still scanning older entries in the background
+    int version                         // HistorySearch.getVersion() when taken
 ) {
     /** An inactive search state, used as a default when no search is active. */
-    public static final SearchState INACTIVE = new SearchState(false, "", "", null, false, -1);
+    public static final SearchState INACTIVE = new SearchState(false, "", "", null, false, -1, SearchMode.SUBSTRING, false, -1);
     /**
      * Get the text to display in the EditBox.
      * Returns match text if available, otherwise original input.
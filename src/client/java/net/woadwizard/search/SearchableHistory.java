@@ -0,0 +1,31 @@
+package net.woadwizard.search;
+
+import java.util.List;
+
+/**
+ * A history that HistorySearch can search faster than a plain list:
+ * narrowed by a trigram index, ranked by frecency, and tagged by source.
+ */
+public interface SearchableHistory {
+
+    /**
+     * A read-only list view of the entries, oldest first.
+     */
+    List<String> view();
+
+    /**
+     * Find entries that may contain the query, ignoring case.
+     * @return history indexes to verify, newest first, or null if the query is too short to narrow
+     */
+    int[] candidates(String query);
+
+    /**
+     * History indexes of the distinct entries, most frecent first.
+     */
+    int[] byFrecency();
+
+    /**
+     * Whether an entry was sent as chat or as a command.
+     */
+    HistoryStore.Kind source(int index);
+}
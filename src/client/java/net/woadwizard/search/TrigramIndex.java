@@ -0,0 +1,120 @@
+package net.woadwizard.search;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Inverted index from character trigrams to the keys whose text contains them.
+ *
+ * A case-insensitive substring query is narrowed to the keys containing every
+ * trigram of the query, by intersecting posting sets instead of scanning all
+ * texts. Trigrams can match out of order, so callers still verify each
+ * candidate (see {@link #contains}). Queries shorter than a trigram cannot be
+ * narrowed.
+ *
+ * @param <K> key identifying an indexed text; each key is indexed with one text
+ */
+public final class TrigramIndex<K> {
+    public static final int GRAM_LENGTH = 3;
+
+    private final Map<Long, Set<K>> postings = new HashMap<>();
+
+    /**
+     * Index a key under the trigrams of its text.
+     */
+    public void add(K key, String text) {
+        for (long gram : grams(fold(text))) {
+            postings.computeIfAbsent(gram, g -> new HashSet<>()).add(key);
+        }
+    }
+
+    /**
+     * Remove a key previously added with the same text.
+     */
+    public void remove(K key, String text) {
+        for (long gram : grams(fold(text))) {
+            Set<K> keys = postings.get(gram);
+            if (keys != null) {
+                keys.remove(key);
+                if (keys.isEmpty()) {
+                    postings.remove(gram);
+                }
+            }
+        }
+    }
+
+    public void clear() {
+        postings.clear();
+    }
+
+    /**
+     * Check if a query is long enough to be narrowed by the index.
+     */
+    public static boolean canNarrow(String query) {
+        return query.length() >= GRAM_LENGTH;
+    }
+
+    /**
+     * Find the keys whose text may contain the query.
+     * @return a new set of candidates to verify, or null if the query is too short to narrow
+     */
+    public Set<K> candidates(String query) {
+        if (!canNarrow(query)) {
+            return null;
+        }
+        List<Set<K>> sets = new ArrayList<>();
+        for (long gram : grams(fold(query))) {
+            Set<K> keys = postings.get(gram);
+            if (keys == null) {
+                return new HashSet<>();
+            }
+            sets.add(keys);
+        }
+        // Intersect starting from the rarest trigram
+        sets.sort(Comparator.comparingInt(Set::size));
+        Set<K> result = new HashSet<>(sets.get(0));
+        for (int i = 1; i < sets.size() && !result.isEmpty(); i++) {
+            result.retainAll(sets.get(i));
+        }
+        return result;
+    }
+
+    /**
+     * Case-insensitive substring check, folded the same way as the index.
+     * @param foldedQuery query already passed through {@link #fold}
+     */
+    public static boolean contains(String text, String foldedQuery) {
+        return fold(text).contains(foldedQuery);
+    }
+
+    /**
+     * Lowercase per char, so folded text keeps the same length and offsets as the original.
+     */
+    public static String fold(String text) {
+        char[] chars = null;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            char lower = Character.toLowerCase(c);
+            if (lower != c) {
+                if (chars == null) {
+                    chars = text.toCharArray();
+                }
+                chars[i] = lower;
+            }
+        }
+        return chars != null ? new String(chars) : text;
+    }
+
+    private static Set<Long> grams(String folded) {
+        Set<Long> grams = new HashSet<>();
+        for (int i = 0; i + GRAM_LENGTH <= folded.length(); i++) {
+            grams.add(((long) folded.charAt(i) << 32) | ((long) folded.charAt(i + 1) << 16) | folded.charAt(i + 2));
+        }
+        return grams;
+    }
+}
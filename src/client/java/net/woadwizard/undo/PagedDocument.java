@@ -0,0 +1,30 @@
+package net.woadwizard.undo;
+
+/**
+ * A document with several pages edited through one text field, such as a
+ * book. Lets a single undo history span every page: edits are tagged with
+ * the page they were made on, and undoing an edit on another page turns to
+ * that page first.
+ */
+public interface PagedDocument {
+
+    /**
+     * Index of the page currently shown in the text field.
+     */
+    int getCurrentPage();
+
+    /**
+     * Current text of a page.
+     */
+    String getPageText(int page);
+
+    /**
+     * Replace the stored text of a page that is not being shown.
+     */
+    void setPageText(int page, String text);
+
+    /**
+     * Turn to a page, loading its text into the text field.
+     */
+    void showPage(int page);
+}
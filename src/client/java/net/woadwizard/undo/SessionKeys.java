@@ -0,0 +1,55 @@
+package net.woadwizard.undo;
+
+import net.minecraft.client.Minecraft;
+import net.minecraft.client.multiplayer.ServerData;
+import net.minecraft.client.server.IntegratedServer;
+import net.minecraft.core.BlockPos;
+
+/**
+ * Stable identifiers for text fields that outlive a single screen instance.
+ * Widgets are recreated every time a screen opens, so persistent state is
+ * keyed by what the field edits rather than by widget identity.
+ */
+public final class SessionKeys {
+
+    private SessionKeys() {}
+
+    /**
+     * Key for the chat input box.
+     */
+    public static String chat() {
+        return "chat";
+    }
+
+    /**
+     * Key for one side of a sign in the current world.
+     */
+    public static String sign(BlockPos pos, boolean frontText) {
+        return "sign:" + world() + ":" + pos.getX() + "," + pos.getY() + "," + pos.getZ()
+            + (frontText ? ":front" : ":back");
+    }
+
+    /**
+     * Key for a writable book held in the given inventory slot.
+     */
+    public static String book(int slot) {
+        return "book:" + world() + ":" + slot;
+    }
+
+    /**
+     * Identifier for the current world: the server address in multiplayer,
+     * or the level name in singleplayer.
+     */
+    public static String world() {
+        Minecraft minecraft = Minecraft.getInstance();
+        IntegratedServer integrated = minecraft.getSingleplayerServer();
+        if (integrated != null) {
+            return "local/" + integrated.getWorldData().getLevelName();
+        }
+        ServerData server = minecraft.getCurrentServer();
+        if (server != null) {
+            return server.ip;
+        }
+        return "unknown";
+    }
+}
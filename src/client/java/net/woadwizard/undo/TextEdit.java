@@ -0,0 +1,89 @@
+package net.woadwizard.undo;
+
+import java.util.Objects;
+
+/**
+ * A single compact edit between two text states.
+ * Stores only the changed span (offset, removed text, inserted text) plus the
+ * cursor on either side, so memory grows with the size of the edit rather
+ * than the size of the buffer.
+ */
+public record TextEdit(int offset, String removed, String inserted, int cursorBefore, int cursorAfter) {
+
+    public TextEdit {
+        Objects.requireNonNull(removed, "removed must not be null");
+        Objects.requireNonNull(inserted, "inserted must not be null");
+    }
+
+    /**
+     * Compute the edit that turns {@code before} into {@code after}.
+     * Uses the common prefix and suffix, so a localized change produces a small record.
+     * @return the edit, or null if the texts are identical
+     */
+    public static TextEdit between(String before, int cursorBefore, String after, int cursorAfter) {
+        if (before.equals(after)) {
+            return null;
+        }
+
+        int maxPrefix = Math.min(before.length(), after.length());
+        int prefix = 0;
+        while (prefix < maxPrefix && before.charAt(prefix) == after.charAt(prefix)) {
+            prefix++;
+        }
+
+        // Suffix must not overlap the prefix in either string
+        int maxSuffix = maxPrefix - prefix;
+        int suffix = 0;
+        while (suffix < maxSuffix
+                && before.charAt(before.length() - 1 - suffix) == after.charAt(after.length() - 1 - suffix)) {
+            suffix++;
+        }
+        // Keep surrogate pairs whole, so the removed and inserted text are valid strings on their own
+        if (prefix > 0 && Character.isHighSurrogate(before.charAt(prefix - 1))) {
+            prefix--;
+        }
+        if (suffix > 0 && Character.isLowSurrogate(before.charAt(before.length() - suffix))) {
+            suffix--;
+        }
+
+        return new TextEdit(
+            prefix,
+            before.substring(prefix, before.length() - suffix),
+            after.substring(prefix, after.length() - suffix),
+            cursorBefore,
+            cursorAfter
+        );
+    }
+
+    /**
+     * Apply this edit forward (redo direction) to a text buffer.
+     */
+    public void applyTo(StringBuilder text) {
+        text.replace(offset, offset + removed.length(), inserted);
+    }
+
+    /**
+     * Apply this edit backward (undo direction) to a text buffer.
+     */
+    public void revertFrom(StringBuilder text) {
+        text.replace(offset, offset + inserted.length(), removed);
+    }
+
+    /**
+     * Apply this edit forward to a string, returning the new text.
+     */
+    public String apply(String text) {
+        StringBuilder sb = new StringBuilder(text.length() - removed.length() + inserted.length());
+        sb.append(text, 0, offset).append(inserted).append(text, offset + removed.length(), text.length());
+        return sb.toString();
+    }
+
+    /**
+     * Apply this edit backward to a string, returning the previous text.
+     */
+    public String revert(String text) {
+        StringBuilder sb = new StringBuilder(text.length() - inserted.length() + removed.length());
+        sb.append(text, 0, offset).append(removed).append(text, offset + inserted.length(), text.length());
+        return sb.toString();
+    }
+}
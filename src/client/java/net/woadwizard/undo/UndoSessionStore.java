@@ -0,0 +1,201 @@
+package net.woadwizard.undo;
+
+import net.fabricmc.loader.api.FabricLoader;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Session store for undo history that outlives individual widgets.
+ *
+ * Screens create new widgets every time they open, so undo trees are saved
+ * here under a stable key (see SessionKeys) when a screen closes and restored
+ * when a widget with the same key is next edited.
+ *
+ * Trees are serialized to bytes on save, so the in-memory store only holds
+ * immutable data that the background thread can safely write to disk.
+ * Loading and writing happen on a single background thread; lookups never
+ * wait for disk I/O.
+ */
+public final class UndoSessionStore {
+    private static final Logger LOGGER = LoggerFactory.getLogger(UndoSessionStore.class);
+    private static final int FILE_MAGIC = 0x45495548; // "EIUH"
+    private static final int FILE_VERSION = 3;
+    private static final int MAX_SESSIONS = 256;
+
+    // Access-ordered so the least recently used sessions are dropped first
+    private static final Map<String, byte[]> sessions = new LinkedHashMap<>(16, 0.75f, true);
+    private static final AtomicBoolean writePending = new AtomicBoolean(false);
+    private static final ExecutorService IO = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "EmacsInput Undo Store");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private UndoSessionStore() {}
+
+    /**
+     * Start loading saved sessions in the background.
+     * Sessions saved before loading finishes take precedence over those on disk.
+     */
+    public static void load() {
+        IO.execute(UndoSessionStore::readFile);
+    }
+
+    /**
+     * Save a widget's undo tree under the given key and schedule a disk write.
+     */
+    public static void save(String key, UndoTree tree) {
+        if (key == null || tree == null || tree.isEmpty()) {
+            return;
+        }
+        byte[] data;
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            tree.writeTo(out);
+            out.flush();
+            data = bytes.toByteArray();
+        } catch (IOException e) {
+            LOGGER.warn("Failed to serialize undo history for {}", key, e);
+            return;
+        }
+
+        synchronized (sessions) {
+            sessions.put(key, data);
+            trimToLimit();
+        }
+        LOGGER.debug("Saved undo session {} ({} bytes)", key, data.length);
+        scheduleWrite();
+    }
+
+    /**
+     * Rebuild the undo tree saved under the given key.
+     * The saved copy is kept so the file stays complete until the key is saved again.
+     * @return the restored tree, or null if nothing is saved (or loading has not finished)
+     */
+    public static UndoTree restore(String key, int maxNodes) {
+        if (key == null) {
+            return null;
+        }
+        byte[] data;
+        synchronized (sessions) {
+            data = sessions.get(key);
+        }
+        if (data == null) {
+            return null;
+        }
+        try {
+            UndoTree tree = UndoTree.readFrom(new DataInputStream(new ByteArrayInputStream(data)), maxNodes);
+            LOGGER.debug("Restored undo session {} ({} nodes)", key, tree.size());
+            return tree;
+        } catch (IOException e) {
+            LOGGER.warn("Discarding unreadable undo history for {}", key, e);
+            return null;
+        }
+    }
+
+    private static void trimToLimit() {
+        Iterator<String> it = sessions.keySet().iterator();
+        while (sessions.size() > MAX_SESSIONS && it.hasNext()) {
+            it.next();
+            it.remove();
+        }
+    }
+
+    /**
+     * Coalesce saves into a single pending write on the background thread.
+     */
+    private static void scheduleWrite() {
+        if (writePending.compareAndSet(false, true)) {
+            IO.execute(() -> {
+                writePending.set(false);
+                writeFile();
+            });
+        }
+    }
+
+    private static Path getFile() {
+        return FabricLoader.getInstance().getConfigDir().resolve("emacsinput").resolve("undo-sessions.bin");
+    }
+
+    private static void readFile() {
+        Path file = getFile();
+        if (!Files.exists(file)) {
+            return;
+        }
+        try (InputStream raw = Files.newInputStream(file);
+             DataInputStream in = new DataInputStream(new InflaterInputStream(raw))) {
+            if (in.readInt() != FILE_MAGIC || in.readInt() != FILE_VERSION) {
+                LOGGER.warn("Ignoring undo history file with unknown format: {}", file);
+                return;
+            }
+            int count = in.readInt();
+            int loaded = 0;
+            for (int i = 0; i < count; i++) {
+                String key = in.readUTF();
+                byte[] data = new byte[in.readInt()];
+                in.readFully(data);
+                synchronized (sessions) {
+                    if (sessions.putIfAbsent(key, data) == null) {
+                        loaded++;
+                    }
+                }
+            }
+            LOGGER.debug("Loaded {} undo sessions from {}", loaded, file);
+        } catch (IOException e) {
+            LOGGER.warn("Failed to read undo history from {}", file, e);
+        }
+    }
+
+    private static void writeFile() {
+        List<Map.Entry<String, byte[]>> snapshot;
+        synchronized (sessions) {
+            snapshot = new ArrayList<>(sessions.entrySet().size());
+            for (Map.Entry<String, byte[]> entry : sessions.entrySet()) {
+                snapshot.add(Map.entry(entry.getKey(), entry.getValue()));
+            }
+        }
+
+        Path file = getFile();
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try {
+            Files.createDirectories(file.getParent());
+            try (OutputStream raw = Files.newOutputStream(temp);
+                 DataOutputStream out = new DataOutputStream(new DeflaterOutputStream(raw))) {
+                out.writeInt(FILE_MAGIC);
+                out.writeInt(FILE_VERSION);
+                out.writeInt(snapshot.size());
+                for (Map.Entry<String, byte[]> entry : snapshot) {
+                    out.writeUTF(entry.getKey());
+                    out.writeInt(entry.getValue().length);
+                    out.write(entry.getValue());
+                }
+            }
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            LOGGER.debug("Wrote {} undo sessions to {}", snapshot.size(), file);
+        } catch (IOException e) {
+            LOGGER.warn("Failed to write undo history to {}", file, e);
+        }
+    }
+}
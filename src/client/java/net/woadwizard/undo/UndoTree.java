@@ -0,0 +1,659 @@
+package net.woadwizard.undo;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Emacs undo-tree style history for a single widget.
+ *
+ * Each node is a text state reachable from its parent by one TextEdit.
+ * New edits after an undo start a new branch instead of discarding the old
+ * one, so nothing past a divergence point is lost. Only the text of the
+ * current node is kept in full; moving between nodes replays the edits on
+ * the path between them.
+ *
+ * A tree can span several pages of one document (a book): every edit is
+ * tagged with its page and each page keeps its own current text. Plain text
+ * fields only ever use page 0.
+ */
+public class UndoTree {
+
+    /**
+     * A state in the tree. The root has no edit; every other node stores the
+     * edit that leads from its parent to it.
+     */
+    public static final class Node {
+        private Node parent;
+        private TextEdit edit;
+        private final int seq;
+        private final int depth;
+        private final int page;
+        private final int cursor;
+        private final List<Node> children = new ArrayList<>(1);
+        private int activeChild = -1;
+        // Seq of the node whose edit this one reverted by undo-in-region, or -1
+        private int undoes = -1;
+
+        private Node(Node parent, TextEdit edit, int seq, int page, int cursor) {
+            this.parent = parent;
+            this.edit = edit;
+            this.seq = seq;
+            this.depth = parent != null ? parent.depth + 1 : 0;
+            this.page = page;
+            this.cursor = cursor;
+        }
+
+        public Node parent() {
+            return parent;
+        }
+
+        public TextEdit edit() {
+            return edit;
+        }
+
+        /** Creation order, unique within one tree. */
+        public int seq() {
+            return seq;
+        }
+
+        /** Page the edit was made on. */
+        public int page() {
+            return page;
+        }
+
+        public int cursor() {
+            return cursor;
+        }
+
+        public List<Node> children() {
+            return children;
+        }
+
+        private Node activeChildNode() {
+            return activeChild >= 0 ? children.get(activeChild) : null;
+        }
+    }
+
+    // Rough per-object overheads used for memory accounting
+    private static final int NODE_OVERHEAD_BYTES = 96;
+    private static final int EDIT_OVERHEAD_BYTES = 32;
+    private static final int STRING_OVERHEAD_BYTES = 40;
+
+    private final int maxNodes;
+    private final TreeMap<Integer, Node> nodesBySeq = new TreeMap<>();
+    private Node root;
+    private Node current;
+    // Text of every known page at the current node
+    private final TreeMap<Integer, String> pages = new TreeMap<>();
+    // Page and cursor touched by the last commit or move
+    private int focusPage;
+    private int focusCursor;
+    private final Set<Integer> changedPages = new HashSet<>();
+    private int nextSeq = 0;
+    private long memoryUsage = 0;
+    private long lastAccess = 0;
+
+    public UndoTree(int maxNodes) {
+        this.maxNodes = maxNodes;
+    }
+
+    /**
+     * Check whether the tree has a starting state yet.
+     */
+    public boolean isEmpty() {
+        return root == null;
+    }
+
+    /**
+     * Text of the page touched by the last commit or move.
+     */
+    public String text() {
+        return pages.get(focusPage);
+    }
+
+    /**
+     * Text of a page at the current node, or null if the page was never recorded.
+     */
+    public String text(int page) {
+        return pages.get(page);
+    }
+
+    /**
+     * Page touched by the last commit or move; the one a UI should show.
+     */
+    public int page() {
+        return focusPage;
+    }
+
+    /**
+     * Cursor position on {@link #page()} after the last commit or move.
+     */
+    public int cursor() {
+        return focusCursor;
+    }
+
+    /**
+     * Pages whose text changed in the last move.
+     */
+    public Set<Integer> changedPages() {
+        return changedPages;
+    }
+
+    public Node current() {
+        return current;
+    }
+
+    public Node root() {
+        return root;
+    }
+
+    public int size() {
+        return nodesBySeq.size();
+    }
+
+    /**
+     * Estimated heap usage of the history in bytes (every node and edit).
+     * The current text is not counted since it is normally shared with the widget.
+     */
+    public long memoryUsage() {
+        return memoryUsage;
+    }
+
+    /**
+     * Access stamp used for least-recently-used eviction across trees.
+     */
+    public long lastAccess() {
+        return lastAccess;
+    }
+
+    public void markAccessed(long stamp) {
+        lastAccess = stamp;
+    }
+
+    /**
+     * Cheap duplicate check against a page's current text:
+     * compare length and hash before falling back to equals.
+     */
+    public boolean matches(int page, String text) {
+        String known = pages.get(page);
+        if (text == known) {
+            return true;
+        }
+        return known != null
+            && text.length() == known.length()
+            && text.hashCode() == known.hashCode()
+            && text.equals(known);
+    }
+
+    /**
+     * Record a new state of a single-page field.
+     * @see #commit(int, String, int)
+     */
+    public boolean commit(String text, int cursorPos) {
+        return commit(0, text, cursorPos);
+    }
+
+    /**
+     * Record a new state of a page. If the text differs from the page's
+     * current text, a child node is added and becomes current. Existing
+     * children are kept as alternative branches. The first state seen for a
+     * page only sets its starting text.
+     * @return true if a node was added
+     */
+    public boolean commit(int page, String text, int cursorPos) {
+        if (root == null) {
+            root = new Node(null, null, nextSeq++, page, cursorPos);
+            nodesBySeq.put(root.seq, root);
+            memoryUsage += nodeBytes(root);
+            current = root;
+            pages.put(page, text);
+            focus(page, cursorPos);
+            return true;
+        }
+        String before = pages.get(page);
+        if (before == null) {
+            pages.put(page, text);
+            return false;
+        }
+        if (matches(page, text)) {
+            return false;
+        }
+
+        int cursorBefore = page == focusPage ? focusCursor : cursorPos;
+        addChild(page, TextEdit.between(before, cursorBefore, text, cursorPos), cursorPos);
+        pages.put(page, text);
+        return true;
+    }
+
+    private Node addChild(int page, TextEdit edit, int cursorPos) {
+        Node child = new Node(current, edit, nextSeq++, page, cursorPos);
+        current.children.add(child);
+        current.activeChild = current.children.size() - 1;
+        nodesBySeq.put(child.seq, child);
+        memoryUsage += nodeBytes(child);
+        current = child;
+        focus(page, cursorPos);
+        trim();
+        return child;
+    }
+
+    private void focus(int page, int cursorPos) {
+        focusPage = page;
+        focusCursor = cursorPos;
+    }
+
+    /**
+     * Move to the parent node.
+     * @return false if already at the root
+     */
+    public boolean undo() {
+        if (current == null || current.parent == null) {
+            return false;
+        }
+        Node from = current;
+        current = from.parent;
+        current.activeChild = current.children.indexOf(from);
+        pages.put(from.page, from.edit.revert(pages.get(from.page)));
+        changedPages.clear();
+        changedPages.add(from.page);
+        focus(from.page, from.edit.cursorBefore());
+        return true;
+    }
+
+    /**
+     * Move to the active child (the most recently visited branch).
+     * @return false if there is nothing to redo
+     */
+    public boolean redo() {
+        Node next = current != null ? current.activeChildNode() : null;
+        if (next == null) {
+            return false;
+        }
+        current = next;
+        pages.put(next.page, next.edit.apply(pages.get(next.page)));
+        changedPages.clear();
+        changedPages.add(next.page);
+        focus(next.page, next.cursor);
+        return true;
+    }
+
+    /**
+     * Undo the most recent change that lies entirely inside [start, end) of
+     * a page's current text, leaving edits elsewhere in the buffer intact.
+     *
+     * Edits on the path to the current node are examined newest first. The
+     * region is mapped back through each edit that lies outside it; edits that
+     * straddle the region boundary stop the search. The chosen edit's range is
+     * then rebased forward through every later edit to find where it sits in
+     * the current text, and its inverse is committed as a new node. Changes
+     * already reverted this way are skipped, so repeating the command keeps
+     * going further back within the region. Edits on other pages are ignored.
+     * @return false if no change inside the region can be undone
+     */
+    public boolean undoInRegion(int page, int start, int end) {
+        if (current == null || start >= end || !pages.containsKey(page)) {
+            return false;
+        }
+
+        List<Node> later = new ArrayList<>();
+        Set<Integer> reverted = new HashSet<>();
+        int regionStart = start;
+        int regionEnd = end;
+        for (Node node = current; node.parent != null; node = node.parent) {
+            if (node.page != page) {
+                continue;
+            }
+            TextEdit edit = node.edit;
+            int editStart = edit.offset();
+            int editEnd = editStart + edit.inserted().length();
+            int growth = edit.inserted().length() - edit.removed().length();
+
+            if (editStart >= regionStart && editEnd <= regionEnd) {
+                if (node.undoes >= 0) {
+                    reverted.add(node.undoes);
+                } else if (!reverted.contains(node.seq)) {
+                    int offset = rebase(edit, later);
+                    if (offset >= 0) {
+                        return commitInverse(node, offset);
+                    }
+                }
+                regionEnd -= growth;
+            } else if (editEnd <= regionStart) {
+                regionStart -= growth;
+                regionEnd -= growth;
+            } else if (editStart < regionEnd) {
+                return false;
+            }
+            later.add(node);
+        }
+        return false;
+    }
+
+    /**
+     * Carry an edit's inserted range forward through the later edits on the
+     * path (given newest first) into current-text coordinates.
+     * @return the rebased offset, or -1 if a later edit overlaps the range
+     */
+    private static int rebase(TextEdit edit, List<Node> later) {
+        int start = edit.offset();
+        int end = start + edit.inserted().length();
+        for (int i = later.size() - 1; i >= 0; i--) {
+            TextEdit next = later.get(i).edit;
+            if (next.offset() >= end) {
+                continue;
+            }
+            if (next.offset() + next.removed().length() > start) {
+                return -1;
+            }
+            int growth = next.inserted().length() - next.removed().length();
+            start += growth;
+            end += growth;
+        }
+        return start;
+    }
+
+    private boolean commitInverse(Node target, int offset) {
+        TextEdit edit = target.edit;
+        String text = pages.get(target.page);
+        if (!text.startsWith(edit.inserted(), offset)) {
+            return false;
+        }
+        int cursorBefore = target.page == focusPage ? focusCursor : offset;
+        int cursorAfter = offset + edit.removed().length();
+        TextEdit inverse = new TextEdit(offset, edit.inserted(), edit.removed(), cursorBefore, cursorAfter);
+        pages.put(target.page, inverse.apply(text));
+        addChild(target.page, inverse, cursorAfter).undoes = target.seq;
+        changedPages.clear();
+        changedPages.add(target.page);
+        return true;
+    }
+
+    /**
+     * Move to the adjacent sibling branch of the current node.
+     * @param direction positive for the next (newer) sibling, negative for the previous one
+     * @return false if the current node has no siblings
+     */
+    public boolean switchBranch(int direction) {
+        if (current == null || current.parent == null || current.parent.children.size() < 2) {
+            return false;
+        }
+        List<Node> siblings = current.parent.children;
+        int index = Math.floorMod(siblings.indexOf(current) + Integer.signum(direction), siblings.size());
+        return jumpTo(siblings.get(index));
+    }
+
+    /**
+     * Move to the node created just before or after the current one,
+     * regardless of which branch it is on.
+     * @param direction positive for newer, negative for older
+     * @return false if there is no such node
+     */
+    public boolean stepChronologically(int direction) {
+        if (current == null) {
+            return false;
+        }
+        Map.Entry<Integer, Node> entry = direction > 0
+            ? nodesBySeq.higherEntry(current.seq)
+            : nodesBySeq.lowerEntry(current.seq);
+        return entry != null && jumpTo(entry.getValue());
+    }
+
+    /**
+     * Move to the node with the given sequence number.
+     * @return false if no such node exists
+     */
+    public boolean jumpTo(int seq) {
+        Node target = nodesBySeq.get(seq);
+        return target != null && jumpTo(target);
+    }
+
+    /**
+     * Move to any node in the tree. Only the edits on the path between the
+     * current node and the target are replayed, on one buffer per page.
+     */
+    public boolean jumpTo(Node target) {
+        if (target == null || current == null || target == current) {
+            return false;
+        }
+
+        // Walk both nodes up to their lowest common ancestor
+        Node up = current;
+        Node down = target;
+        Node lastReverted = null;
+        Deque<Node> descent = new ArrayDeque<>();
+        Map<Integer, StringBuilder> buffers = new HashMap<>();
+        while (up.depth > down.depth) {
+            up.edit.revertFrom(buffer(buffers, up.page));
+            lastReverted = up;
+            up = up.parent;
+        }
+        while (down.depth > up.depth) {
+            descent.push(down);
+            down = down.parent;
+        }
+        while (up != down) {
+            up.edit.revertFrom(buffer(buffers, up.page));
+            lastReverted = up;
+            up = up.parent;
+            descent.push(down);
+            down = down.parent;
+        }
+
+        // Replay the edits down to the target, updating branch selection as we go
+        Node node = up;
+        while (!descent.isEmpty()) {
+            Node child = descent.pop();
+            node.activeChild = node.children.indexOf(child);
+            child.edit.applyTo(buffer(buffers, child.page));
+            node = child;
+        }
+
+        current = target;
+        changedPages.clear();
+        for (Map.Entry<Integer, StringBuilder> entry : buffers.entrySet()) {
+            pages.put(entry.getKey(), entry.getValue().toString());
+            changedPages.add(entry.getKey());
+        }
+        // Focus where the last replayed edit happened
+        if (node != up) {
+            focus(target.page, target.cursor);
+        } else {
+            focus(lastReverted.page, lastReverted.edit.cursorBefore());
+        }
+        return true;
+    }
+
+    private StringBuilder buffer(Map<Integer, StringBuilder> buffers, int page) {
+        return buffers.computeIfAbsent(page, p -> new StringBuilder(pages.get(p)));
+    }
+
+    /**
+     * Drop the oldest states once the tree exceeds its node limit.
+     */
+    private void trim() {
+        while (nodesBySeq.size() > maxNodes && root != current) {
+            dropRoot();
+        }
+    }
+
+    /**
+     * Evict the oldest state to free memory. The root is dropped while it is
+     * not the current node; after that, branches the user could still redo
+     * into are discarded. The current state is never evicted.
+     * @return false if nothing is left to evict
+     */
+    public boolean evictOldest() {
+        if (root == null) {
+            return false;
+        }
+        if (root != current) {
+            dropRoot();
+            return true;
+        }
+        if (!root.children.isEmpty()) {
+            root.children.forEach(this::discardSubtree);
+            root.children.clear();
+            root.activeChild = -1;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Remove the root. The child leading toward the current node becomes the
+     * new root; branches off the old root are discarded.
+     */
+    private void dropRoot() {
+        Node keep = current;
+        while (keep.parent != root) {
+            keep = keep.parent;
+        }
+        for (Node child : root.children) {
+            if (child != keep) {
+                discardSubtree(child);
+            }
+        }
+        nodesBySeq.remove(root.seq);
+        memoryUsage -= nodeBytes(root) + nodeBytes(keep);
+        // Depths are only compared relative to each other, so the
+        // surviving subtree keeps its depths unchanged.
+        keep.parent = null;
+        keep.edit = null;
+        memoryUsage += nodeBytes(keep);
+        root = keep;
+    }
+
+    private static long nodeBytes(Node node) {
+        long bytes = NODE_OVERHEAD_BYTES;
+        if (node.edit != null) {
+            bytes += EDIT_OVERHEAD_BYTES + stringBytes(node.edit.removed()) + stringBytes(node.edit.inserted());
+        }
+        return bytes;
+    }
+
+    private static long stringBytes(String s) {
+        return STRING_OVERHEAD_BYTES + 2L * s.length();
+    }
+
+    // ========== Serialization ==========
+
+    /**
+     * Write the tree in a compact binary form: the current text of every
+     * page in full, then every node in creation order with its parent and edit.
+     * Parents are always created before their children, so a single pass
+     * rebuilds the tree on read.
+     */
+    public void writeTo(DataOutputStream out) throws IOException {
+        out.writeInt(nodesBySeq.size());
+        out.writeInt(nextSeq);
+        out.writeInt(current.seq);
+        out.writeInt(focusPage);
+        out.writeInt(focusCursor);
+        out.writeInt(pages.size());
+        for (Map.Entry<Integer, String> entry : pages.entrySet()) {
+            out.writeInt(entry.getKey());
+            writeString(out, entry.getValue());
+        }
+        for (Node node : nodesBySeq.values()) {
+            out.writeInt(node.seq);
+            out.writeInt(node.parent != null ? node.parent.seq : -1);
+            out.writeInt(node.page);
+            out.writeInt(node.cursor);
+            out.writeInt(node.activeChild);
+            out.writeInt(node.undoes);
+            if (node.edit != null) {
+                out.writeInt(node.edit.offset());
+                writeString(out, node.edit.removed());
+                writeString(out, node.edit.inserted());
+                out.writeInt(node.edit.cursorBefore());
+                out.writeInt(node.edit.cursorAfter());
+            }
+        }
+    }
+
+    /**
+     * Read a tree written by {@link #writeTo}.
+     */
+    public static UndoTree readFrom(DataInputStream in, int maxNodes) throws IOException {
+        UndoTree tree = new UndoTree(maxNodes);
+        int count = in.readInt();
+        tree.nextSeq = in.readInt();
+        int currentSeq = in.readInt();
+        tree.focus(in.readInt(), in.readInt());
+        int pageCount = in.readInt();
+        for (int i = 0; i < pageCount; i++) {
+            int page = in.readInt();
+            tree.pages.put(page, readString(in));
+        }
+
+        for (int i = 0; i < count; i++) {
+            int seq = in.readInt();
+            int parentSeq = in.readInt();
+            int page = in.readInt();
+            int cursor = in.readInt();
+            int activeChild = in.readInt();
+            int undoes = in.readInt();
+            Node parent = parentSeq >= 0 ? tree.nodesBySeq.get(parentSeq) : null;
+            if (parentSeq >= 0 && parent == null) {
+                throw new IOException("Undo node " + seq + " references missing parent " + parentSeq);
+            }
+            TextEdit edit = null;
+            if (parent != null) {
+                edit = new TextEdit(in.readInt(), readString(in), readString(in), in.readInt(), in.readInt());
+            }
+            if (parent != null && !tree.pages.containsKey(page)) {
+                throw new IOException("Undo node " + seq + " references unknown page " + page);
+            }
+            Node node = new Node(parent, edit, seq, page, cursor);
+            node.activeChild = activeChild;
+            node.undoes = undoes;
+            if (parent != null) {
+                parent.children.add(node);
+            } else {
+                tree.root = node;
+            }
+            tree.nodesBySeq.put(seq, node);
+            tree.memoryUsage += nodeBytes(node);
+        }
+
+        tree.current = tree.nodesBySeq.get(currentSeq);
+        if (tree.root == null || tree.current == null || tree.text() == null) {
+            throw new IOException("Undo tree is missing its root, current node or current page");
+        }
+        return tree;
+    }
+
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private void discardSubtree(Node node) {
+        Deque<Node> pending = new ArrayDeque<>();
+        pending.push(node);
+        while (!pending.isEmpty()) {
+            Node n = pending.pop();
+            nodesBySeq.remove(n.seq);
+            memoryUsage -= nodeBytes(n);
+            n.children.forEach(pending::push);
+        }
+    }
+}
@@ -0,0 +1,25 @@
+package net.woadwizard.config;
+
+import me.shedaniel.autoconfig.AutoConfig;
+import me.shedaniel.autoconfig.serializer.GsonConfigSerializer;
+
+/**
+ * Registers the mod's config for tests, once per test run, as the client
+ * entrypoint does when the game starts.
+ */
+public final class TestConfig {
+    private static boolean registered = false;
+
+    private TestConfig() {}
+
+    /**
+     * Register the config if no test has yet, and get it.
+     */
+    public static synchronized ModConfig get() {
+        if (!registered) {
+            AutoConfig.register(ModConfig.class, GsonConfigSerializer::new);
+            registered = true;
+        }
+        return ConfigHelper.get();
+    }
+}
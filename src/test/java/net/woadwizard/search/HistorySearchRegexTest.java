@@ -0,0 +1,85 @@
+package net.woadwizard.search;
+
+import net.woadwizard.config.TestConfig;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Checks that regex searches of long histories run in the background and
+ * that a pattern which backtracks catastrophically can be abandoned.
+ */
+class HistorySearchRegexTest {
+    // HistorySearch.BACKGROUND_THRESHOLD
+    private static final int LONG_HISTORY = 20_000;
+    private static final long TIMEOUT_NANOS = 10_000_000_000L;
+
+    @BeforeAll
+    static void registerConfig() {
+        TestConfig.get();
+    }
+
+    @Test
+    void longHistoriesAreScannedInTheBackground() {
+        List<String> history = new ArrayList<>();
+        for (int i = 0; i < LONG_HISTORY * 2; i++) {
+            history.add(i % 1000 == 0 ? "/tp " + i : "hello " + i);
+        }
+        HistorySearch search = new HistorySearch();
+        search.enter("", history);
+        search.toggleMode(SearchMode.REGEX);
+        for (char c : "^/tp".toCharArray()) {
+            search.appendToQuery(c);
+        }
+
+        awaitBackgroundScan(search);
+
+        assertEquals("/tp " + (history.size() - 1000), search.getState().displayText());
+        search.exit();
+    }
+
+    @Test
+    void catastrophicPatternsCanBeAbandoned() {
+        List<String> history = new ArrayList<>();
+        for (int i = 0; i < LONG_HISTORY; i++) {
+            history.add("a".repeat(40) + "!");
+        }
+        history.add("/tp 1 2 3");
+        HistorySearch search = new HistorySearch();
+        search.enter("", history);
+        search.toggleMode(SearchMode.REGEX);
+        for (char c : "(a+)+$".toCharArray()) {
+            search.appendToQuery(c);
+        }
+        assertTrue(search.getState().searching());
+
+        // Replaces the pattern, which has to abandon the stuck scan to run at all
+        for (int i = 0; i < "(a+)+$".length(); i++) {
+            search.deleteFromQuery();
+        }
+        for (char c : "^/tp".toCharArray()) {
+            search.appendToQuery(c);
+        }
+
+        awaitBackgroundScan(search);
+
+        assertEquals("/tp 1 2 3", search.getState().displayText());
+        search.exit();
+    }
+
+    private static void awaitBackgroundScan(HistorySearch search) {
+        long deadline = System.nanoTime() + TIMEOUT_NANOS;
+        while (search.getState().searching()) {
+            assertTrue(System.nanoTime() < deadline, "Background scan didn't finish");
+            search.applyBackgroundResults();
+            Thread.onSpinWait();
+        }
+        assertFalse(search.getState().searching());
+    }
+}
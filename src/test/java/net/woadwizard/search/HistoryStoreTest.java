@@ -0,0 +1,58 @@
+package net.woadwizard.search;
+
+import net.woadwizard.config.TestConfig;
+import net.fabricmc.loader.api.FabricLoader;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.function.Function;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Saving, loading and compacting chat history on disk.
+ */
+class HistoryStoreTest {
+    private static final int MAX_ENTRIES = 5;
+    private static final int INDEX_ENTRY_BYTES = 16;
+    private static final Path DIRECTORY = FabricLoader.getInstance().getConfigDir().resolve("emacsinput");
+
+    @BeforeAll
+    static void startEmpty() throws Exception {
+        TestConfig.get().historySearch.maxEntries = MAX_ENTRIES;
+        // Nothing has opened the files yet in this run
+        Files.deleteIfExists(DIRECTORY.resolve("history.dat"));
+        Files.deleteIfExists(DIRECTORY.resolve("history.idx"));
+    }
+
+    @Test
+    void compactsRightAfterLoading() throws Exception {
+        for (int i = 0; i < MAX_ENTRIES; i++) {
+            HistoryStore.append("test", HistoryStore.Kind.CHAT, "first " + i);
+        }
+        assertEquals(MAX_ENTRIES, load("test").chat().size());
+
+        // Well past what compaction keeps, so writing these compacts the files just read
+        int more = 4 * MAX_ENTRIES;
+        for (int i = 0; i < more; i++) {
+            HistoryStore.append("test", HistoryStore.Kind.CHAT, "second " + i);
+        }
+        List<String> loaded = load("test").chat().stream().map(HistoryStore.Entry::text).toList();
+
+        List<String> newest = IntStream.range(more - MAX_ENTRIES, more)
+            .mapToObj(i -> "second " + i).toList();
+        assertEquals(newest, loaded);
+        long indexed = (Files.size(DIRECTORY.resolve("history.idx")) - 8) / INDEX_ENTRY_BYTES;
+        assertTrue(indexed <= 2L * MAX_ENTRIES, "Index still holds " + indexed + " entries");
+    }
+
+    private static HistoryStore.PartitionHistory load(String partition) throws Exception {
+        return HistoryStore.load(partition, EnumSet.of(HistoryStore.Kind.CHAT), MAX_ENTRIES, Function.identity()).get();
+    }
+}
@@ -0,0 +1,73 @@
+package net.woadwizard.search;
+
+import net.woadwizard.config.TestConfig;
+import net.minecraft.client.gui.components.EditBox;
+import net.minecraft.network.chat.Component;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Checks that formatting the search field allocates nothing per frame while
+ * the search state is unchanged, as EditBox calls the formatter every frame.
+ */
+class SearchFormatterAllocationTest {
+    private static final int WARMUP_FRAMES = 20_000;
+    private static final int FRAMES = 100_000;
+
+    @BeforeAll
+    static void registerConfig() {
+        TestConfig.get();
+    }
+
+    @AfterEach
+    void clearCurrent() {
+        HistorySearch.setCurrent(null);
+    }
+
+    @Test
+    void steadyStateFramesDoNotAllocate() {
+        HistorySearch search = new HistorySearch();
+        search.enter("", List.of("/tp 100 64 200", "hello world", "/give @p diamond"));
+        for (char c : "wor".toCharArray()) {
+            search.appendToQuery(c);
+        }
+        HistorySearch.setCurrent(search);
+        SearchState state = search.getState();
+        assertNotNull(state.selectedMatch());
+
+        // EditBox formats the text on each side of the cursor separately
+        String text = state.displayText();
+        int cursor = state.cursorPosition();
+        String beforeCursor = text.substring(0, cursor);
+        String afterCursor = text.substring(cursor);
+        // Only rendering uses the font, and this never renders
+        SearchFormatter formatter = new SearchFormatter(new EditBox(null, 0, 0, 200, 20, Component.empty()));
+
+        // Builds both fragments, then lets the JIT settle
+        for (int i = 0; i < WARMUP_FRAMES; i++) {
+            formatter.format(beforeCursor, 0);
+            formatter.format(afterCursor, cursor);
+        }
+
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long thread = Thread.currentThread().threadId();
+        long before = threads.getThreadAllocatedBytes(thread);
+        for (int i = 0; i < FRAMES; i++) {
+            formatter.format(beforeCursor, 0);
+            formatter.format(afterCursor, cursor);
+        }
+        long allocated = threads.getThreadAllocatedBytes(thread) - before;
+
+        assertEquals(state.version(), search.getState().version());
+        // Allow for the measurement itself, which is far less than a byte a frame
+        assertTrue(allocated < FRAMES, "Allocated " + allocated + " bytes over " + FRAMES + " frames");
+    }
+}
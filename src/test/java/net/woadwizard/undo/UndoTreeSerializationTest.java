@@ -0,0 +1,57 @@
+package net.woadwizard.undo;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Checks that undo trees survive being written and read back, including
+ * edits inside characters outside the Basic Multilingual Plane.
+ */
+class UndoTreeSerializationTest {
+    private static final int MAX_NODES = 100;
+
+    @Test
+    void editsBetweenEmojiRoundTrip() throws IOException {
+        UndoTree tree = new UndoTree(MAX_NODES);
+        tree.commit("hi 😀!", 5);
+        tree.commit("hi 😁!", 5);
+        tree.commit("hi 😁😀!", 7);
+
+        UndoTree read = roundTrip(tree);
+
+        assertEquals("hi 😁😀!", read.text());
+        assertTrue(read.undo());
+        assertEquals("hi 😁!", read.text());
+        assertTrue(read.undo());
+        assertEquals("hi 😀!", read.text());
+        assertTrue(read.redo());
+        assertEquals("hi 😁!", read.text());
+    }
+
+    @Test
+    void editsKeepSurrogatePairsWhole() {
+        TextEdit edit = TextEdit.between("😀", 2, "😁", 2);
+
+        assertEquals(0, edit.offset());
+        assertEquals("😀", edit.removed());
+        assertEquals("😁", edit.inserted());
+    }
+
+    private static UndoTree roundTrip(UndoTree tree) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            tree.writeTo(out);
+        }
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+            return UndoTree.readFrom(in, MAX_NODES);
+        }
+    }
+}